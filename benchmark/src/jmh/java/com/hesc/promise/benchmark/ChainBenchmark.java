@@ -0,0 +1,102 @@
+package com.hesc.promise.benchmark;
+
+import com.hesc.promise.Action;
+import com.hesc.promise.Function;
+import com.hesc.promise.Promise;
+import com.hesc.promise.PromiseExecutors;
+import com.hesc.promise.PromiseHandler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1/10/100级then链的开销,分别在已完成和未完成的promise上构建,以{@link CompletableFuture#thenApply}作为对照
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChainBenchmark {
+
+    private static final Function<Integer, Integer> INCREMENT = new Function<Integer, Integer>() {
+        @Override
+        public Integer call(Integer integer) {
+            return integer + 1;
+        }
+    };
+
+    private static final java.util.function.Function<Integer, Integer> CF_INCREMENT =
+            new java.util.function.Function<Integer, Integer>() {
+                @Override
+                public Integer apply(Integer integer) {
+                    return integer + 1;
+                }
+            };
+
+    @Param({"1", "10", "100"})
+    public int stages;
+
+    private Executor mExecutor;
+    private PromiseHandler<Integer> mHandler;
+    private Action<PromiseHandler<Integer>> mCapture;
+
+    @Setup
+    public void setup() {
+        mExecutor = PromiseExecutors.immediate();
+        mCapture = new Action<PromiseHandler<Integer>>() {
+            @Override
+            public void call(PromiseHandler<Integer> handler) {
+                mHandler = handler;
+            }
+        };
+    }
+
+    @Benchmark
+    public Integer thenOnResolved() throws Exception {
+        Promise<Integer> promise = Promise.resolve(0, mExecutor, null);
+        for (int i = 0; i < stages; i++) {
+            promise = promise.then(INCREMENT);
+        }
+        return promise.await();
+    }
+
+    @Benchmark
+    public Integer thenOnPending() throws Exception {
+        Promise<Integer> root = new Promise<>(mCapture, mExecutor);
+        Promise<Integer> promise = root;
+        for (int i = 0; i < stages; i++) {
+            promise = promise.then(INCREMENT);
+        }
+        mHandler.resolve(0);
+        return promise.await();
+    }
+
+    @Benchmark
+    public Integer completableFutureOnCompleted() {
+        CompletableFuture<Integer> future = CompletableFuture.completedFuture(0);
+        for (int i = 0; i < stages; i++) {
+            future = future.thenApply(CF_INCREMENT);
+        }
+        return future.join();
+    }
+
+    @Benchmark
+    public Integer completableFutureOnPending() {
+        CompletableFuture<Integer> root = new CompletableFuture<>();
+        CompletableFuture<Integer> future = root;
+        for (int i = 0; i < stages; i++) {
+            future = future.thenApply(CF_INCREMENT);
+        }
+        root.complete(0);
+        return future.join();
+    }
+}
@@ -0,0 +1,85 @@
+package com.hesc.promise.benchmark;
+
+import com.hesc.promise.Function;
+import com.hesc.promise.Promise;
+import com.hesc.promise.PromiseExecutors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * computation()的ForkJoinPool与原来的固定大小线程池(共享一个LinkedBlockingQueue)对比:
+ * 一次发起1000个小任务,每个任务再接4级then续体,汇聚后等待结果。
+ * 核数越多,共享队列的锁竞争越明显,建议在32核以上的机器上运行
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ComputationBenchmark {
+
+    private static final int TASKS = 1000;
+    private static final int STAGES = 4;
+
+    private static final Function<Integer, Integer> WORK = new Function<Integer, Integer>() {
+        @Override
+        public Integer call(Integer integer) {
+            int value = integer;
+            for (int i = 0; i < 100; i++) {
+                value = value * 31 + i;
+            }
+            return value;
+        }
+    };
+
+    @Param({"forkJoin", "fixedPool"})
+    public String pool;
+
+    private ExecutorService mFixedPool;
+    private Executor mExecutor;
+
+    @Setup
+    public void setup() {
+        if ("forkJoin".equals(pool)) {
+            mExecutor = PromiseExecutors.computation();
+        } else {
+            mFixedPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            mExecutor = mFixedPool;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (mFixedPool != null) {
+            mFixedPool.shutdown();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TASKS * (STAGES + 1))
+    public List<Integer> smallTasks() throws Exception {
+        List<Promise<Integer>> promises = new ArrayList<>(TASKS);
+        for (int i = 0; i < TASKS; i++) {
+            Promise<Integer> promise = Promise.resolve(i, mExecutor, null).then(WORK);
+            for (int j = 0; j < STAGES; j++) {
+                promise = promise.then(WORK);
+            }
+            promises.add(promise);
+        }
+        return Promise.all(mExecutor, promises).await();
+    }
+}
@@ -0,0 +1,58 @@
+package com.hesc.promise.benchmark;
+
+import com.hesc.promise.Action;
+import com.hesc.promise.Promise;
+import com.hesc.promise.PromiseExecutors;
+import com.hesc.promise.PromiseHandler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 创建promise并resolve的开销,以{@link CompletableFuture}作为对照
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CreationBenchmark {
+
+    private static final Action<PromiseHandler<Integer>> RESOLVE = new Action<PromiseHandler<Integer>>() {
+        @Override
+        public void call(PromiseHandler<Integer> handler) {
+            handler.resolve(1);
+        }
+    };
+
+    private Executor mExecutor;
+
+    @Setup
+    public void setup() {
+        mExecutor = PromiseExecutors.immediate();
+    }
+
+    @Benchmark
+    public Promise<Integer> newPromiseResolve() {
+        return new Promise<>(RESOLVE, mExecutor);
+    }
+
+    @Benchmark
+    public Promise<Integer> resolveFactory() {
+        return Promise.resolve(1, mExecutor, null);
+    }
+
+    @Benchmark
+    public CompletableFuture<Integer> completableFuture() {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        future.complete(1);
+        return future;
+    }
+}
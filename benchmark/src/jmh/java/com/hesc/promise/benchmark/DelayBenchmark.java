@@ -0,0 +1,74 @@
+package com.hesc.promise.benchmark;
+
+import com.hesc.promise.Promise;
+import com.hesc.promise.PromiseExecutors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一次发起1000个1ms的delay并等待全部完成的吞吐量,以{@link ScheduledExecutorService}作为对照
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DelayBenchmark {
+
+    private static final int BATCH = 1000;
+
+    private Executor mExecutor;
+    private ScheduledExecutorService mScheduler;
+
+    @Setup
+    public void setup() {
+        mExecutor = PromiseExecutors.immediate();
+        mScheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mScheduler.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public List<Object> delay() throws Exception {
+        List<Promise<Object>> promises = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            promises.add(Promise.delay(1, mExecutor));
+        }
+        return Promise.all(mExecutor, promises).await();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public Void scheduledExecutor() {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            final CompletableFuture<Object> future = new CompletableFuture<>();
+            mScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    future.complete(null);
+                }
+            }, 1, TimeUnit.MILLISECONDS);
+            futures[i] = future;
+        }
+        return CompletableFuture.allOf(futures).join();
+    }
+}
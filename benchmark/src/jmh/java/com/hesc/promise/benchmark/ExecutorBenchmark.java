@@ -0,0 +1,99 @@
+package com.hesc.promise.benchmark;
+
+import com.hesc.promise.Function;
+import com.hesc.promise.Promise;
+import com.hesc.promise.PromiseExecutors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在各个{@link PromiseExecutors}上执行10级then链并等待结果,
+ * 以{@link CompletableFuture#thenApplyAsync}在公共ForkJoinPool上执行作为对照。
+ * mainThread()/currentThread()需要android的Looper,不在此测试
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ExecutorBenchmark {
+
+    private static final int STAGES = 10;
+
+    private static final Function<Integer, Integer> INCREMENT = new Function<Integer, Integer>() {
+        @Override
+        public Integer call(Integer integer) {
+            return integer + 1;
+        }
+    };
+
+    private static final java.util.function.Function<Integer, Integer> CF_INCREMENT =
+            new java.util.function.Function<Integer, Integer>() {
+                @Override
+                public Integer apply(Integer integer) {
+                    return integer + 1;
+                }
+            };
+
+    @Param({"immediate", "io", "computation", "newThread", "virtual"})
+    public String executor;
+
+    private Executor mExecutor;
+
+    @Setup
+    public void setup() {
+        switch (executor) {
+            case "immediate":
+                mExecutor = PromiseExecutors.immediate();
+                break;
+            case "io":
+                mExecutor = PromiseExecutors.io();
+                break;
+            case "computation":
+                mExecutor = PromiseExecutors.computation();
+                break;
+            case "newThread":
+                mExecutor = PromiseExecutors.newThread();
+                break;
+            case "virtual":
+                mExecutor = PromiseExecutors.virtual();
+                break;
+            default:
+                throw new IllegalArgumentException("unknown executor: " + executor);
+        }
+    }
+
+    @Benchmark
+    public Integer promiseChain() throws Exception {
+        Promise<Integer> promise = Promise.resolve(0, mExecutor, null);
+        for (int i = 0; i < STAGES; i++) {
+            promise = promise.then(INCREMENT);
+        }
+        return promise.await();
+    }
+
+    @Benchmark
+    public Integer completableFutureAsync() {
+        Executor pool = ForkJoinPool.commonPool();
+        CompletableFuture<Integer> future = CompletableFuture.supplyAsync(new java.util.function.Supplier<Integer>() {
+            @Override
+            public Integer get() {
+                return 0;
+            }
+        }, pool);
+        for (int i = 0; i < STAGES; i++) {
+            future = future.thenApplyAsync(CF_INCREMENT, pool);
+        }
+        return future.join();
+    }
+}
@@ -0,0 +1,106 @@
+package com.hesc.promise.benchmark;
+
+import com.hesc.promise.Action;
+import com.hesc.promise.Promise;
+import com.hesc.promise.PromiseExecutors;
+import com.hesc.promise.PromiseHandler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * all/race汇聚10/1k/100k个promise的开销:先订阅再逐个resolve,
+ * 以{@link CompletableFuture#allOf}/{@link CompletableFuture#anyOf}作为对照
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FanInBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int size;
+
+    private Executor mExecutor;
+    private List<PromiseHandler<Integer>> mHandlers;
+    private Action<PromiseHandler<Integer>> mCapture;
+
+    @Setup
+    public void setup() {
+        mExecutor = PromiseExecutors.immediate();
+        mHandlers = new ArrayList<>(size);
+        mCapture = new Action<PromiseHandler<Integer>>() {
+            @Override
+            public void call(PromiseHandler<Integer> handler) {
+                mHandlers.add(handler);
+            }
+        };
+    }
+
+    private List<Promise<Integer>> createPending() {
+        mHandlers.clear();
+        List<Promise<Integer>> promises = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            promises.add(new Promise<>(mCapture, mExecutor));
+        }
+        return promises;
+    }
+
+    private void resolveAll() {
+        for (int i = 0; i < size; i++) {
+            mHandlers.get(i).resolve(i);
+        }
+    }
+
+    @Benchmark
+    public List<Integer> all() throws Exception {
+        Promise<List<Integer>> promise = Promise.all(mExecutor, createPending());
+        resolveAll();
+        return promise.await();
+    }
+
+    @Benchmark
+    public Integer race() throws Exception {
+        List<Promise<Integer>> promises = createPending();
+        Promise<Integer> promise = Promise.race(mExecutor, promises.toArray(new Promise[size]));
+        resolveAll();
+        return promise.await();
+    }
+
+    @Benchmark
+    public Void completableFutureAllOf() {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[size];
+        for (int i = 0; i < size; i++) {
+            futures[i] = new CompletableFuture<Integer>();
+        }
+        CompletableFuture<Void> future = CompletableFuture.allOf(futures);
+        for (int i = 0; i < size; i++) {
+            ((CompletableFuture<Integer>) futures[i]).complete(i);
+        }
+        return future.join();
+    }
+
+    @Benchmark
+    public Object completableFutureAnyOf() {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[size];
+        for (int i = 0; i < size; i++) {
+            futures[i] = new CompletableFuture<Integer>();
+        }
+        CompletableFuture<Object> future = CompletableFuture.anyOf(futures);
+        for (int i = 0; i < size; i++) {
+            ((CompletableFuture<Integer>) futures[i]).complete(i);
+        }
+        return future.join();
+    }
+}
@@ -0,0 +1,162 @@
+package com.hesc.promise.benchmark;
+
+import com.hesc.promise.Action;
+import com.hesc.promise.Function;
+import com.hesc.promise.Promise;
+import com.hesc.promise.PromiseExecutors;
+import com.hesc.promise.PromiseHandler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 多线程同时订阅和结束同一个promise时的吞吐量:每一轮PARTIES个线程在同一个未完成的promise上注册回调,
+ * 最后到达的线程结束它并换上下一轮。<br/>
+ * 与加锁实现(状态和回调列表都由对象锁保护,即改为CAS之前的做法)以及{@link CompletableFuture}对比。<br/>
+ * 对照组不创建then返回的新promise,单线程开销本来就更低,应比较各实现从-t 1到-t 4的吞吐量变化;
+ * 需要在多核机器上运行
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(SettleContentionBenchmark.PARTIES)
+public class SettleContentionBenchmark {
+
+    static final int PARTIES = 4;
+
+    private static final Function<Integer, Void> NOOP = new Function<Integer, Void>() {
+        @Override
+        public Void call(Integer integer) {
+            return null;
+        }
+    };
+
+    private static final java.util.function.Function<Integer, Void> CF_NOOP =
+            new java.util.function.Function<Integer, Void>() {
+                @Override
+                public Void apply(Integer integer) {
+                    return null;
+                }
+            };
+
+    @Param({"promise", "synchronized", "completableFuture"})
+    public String impl;
+
+    private final AtomicReference<Round> mRound = new AtomicReference<>();
+
+    @Setup
+    public void setup() {
+        mRound.set(newRound());
+    }
+
+    @Benchmark
+    public void subscribeAndSettle() {
+        Round round = mRound.get();
+        round.subscribe();
+        if (round.mArrivals.incrementAndGet() == PARTIES) {
+            mRound.compareAndSet(round, newRound());
+            round.settle();
+        }
+    }
+
+    private Round newRound() {
+        if ("promise".equals(impl)) {
+            return new PromiseRound();
+        } else if ("synchronized".equals(impl)) {
+            return new SynchronizedRound();
+        }
+        return new CompletableFutureRound();
+    }
+
+    private abstract static class Round {
+        final AtomicInteger mArrivals = new AtomicInteger();
+
+        abstract void subscribe();
+
+        abstract void settle();
+    }
+
+    private static final class PromiseRound extends Round {
+        private PromiseHandler<Integer> mHandler;
+        private final Promise<Integer> mPromise = new Promise<>(new Action<PromiseHandler<Integer>>() {
+            @Override
+            public void call(PromiseHandler<Integer> handler) {
+                mHandler = handler;
+            }
+        }, PromiseExecutors.immediate());
+
+        @Override
+        void subscribe() {
+            mPromise.then(NOOP);
+        }
+
+        @Override
+        void settle() {
+            mHandler.resolve(1);
+        }
+    }
+
+    private static final class CompletableFutureRound extends Round {
+        private final CompletableFuture<Integer> mFuture = new CompletableFuture<>();
+
+        @Override
+        void subscribe() {
+            mFuture.thenApply(CF_NOOP);
+        }
+
+        @Override
+        void settle() {
+            mFuture.complete(1);
+        }
+    }
+
+    /**
+     * 对照组:状态和回调列表都在对象锁内读写,结束时在锁内取走回调,锁外执行
+     */
+    private static final class SynchronizedRound extends Round {
+        private boolean mDone;
+        private Integer mValue;
+        private List<Function<Integer, Void>> mCallbacks = new ArrayList<>();
+
+        @Override
+        void subscribe() {
+            Integer value;
+            synchronized (this) {
+                if (!mDone) {
+                    mCallbacks.add(NOOP);
+                    return;
+                }
+                value = mValue;
+            }
+            NOOP.call(value);
+        }
+
+        @Override
+        void settle() {
+            List<Function<Integer, Void>> callbacks;
+            synchronized (this) {
+                mDone = true;
+                mValue = 1;
+                callbacks = mCallbacks;
+                mCallbacks = null;
+            }
+            for (Function<Integer, Void> callback : callbacks) {
+                callback.call(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.hesc.promise;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>多个promise都失败时的异常,由{@link Promise#any(Promise[])}和{@link Promise#some(int, Promise[])}抛出。</p>
+ * <p>{@link #getExceptions()}按参数顺序返回每个失败promise的异常。</p>
+ */
+public class AggregateException extends Exception {
+    private final List<Throwable> mExceptions;
+
+    public AggregateException(String message, List<Throwable> exceptions) {
+        super(message, exceptions.isEmpty() ? null : exceptions.get(0));
+        mExceptions = Collections.unmodifiableList(exceptions);
+    }
+
+    public List<Throwable> getExceptions() {
+        return mExceptions;
+    }
+}
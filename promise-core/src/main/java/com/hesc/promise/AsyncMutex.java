@@ -0,0 +1,37 @@
+package com.hesc.promise;
+
+import java.util.concurrent.Executor;
+
+/**
+ * <p>不阻塞线程的互斥锁:{@link #lock()}返回的promise在取得锁时resolved,
+ * 调用{@link Permit#release()}解锁。不可重入。</p>
+ * <p>用于保护跨越多个then阶段的临界区,等待期间不占用线程。</p>
+ */
+public final class AsyncMutex {
+    private final AsyncSemaphore mSemaphore = new AsyncSemaphore(1);
+
+    /**
+     * 取得锁,返回的promise的回调在executor上执行
+     */
+    public Promise<Permit> lock(Executor executor) {
+        return mSemaphore.acquire(executor);
+    }
+
+    /**
+     * @see #lock(Executor)
+     */
+    public Promise<Permit> lock() {
+        return mSemaphore.acquire();
+    }
+
+    /**
+     * 锁空闲时立即取得,否则返回null
+     */
+    public Permit tryLock() {
+        return mSemaphore.tryAcquire();
+    }
+
+    public boolean isLocked() {
+        return mSemaphore.getAvailablePermits() == 0;
+    }
+}
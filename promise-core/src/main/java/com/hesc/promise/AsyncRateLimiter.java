@@ -0,0 +1,75 @@
+package com.hesc.promise;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>不阻塞线程的令牌桶限流器:每秒补充permitsPerSecond个令牌,最多积攒burst个。
+ * {@link #take()}返回的promise在取得令牌时resolved。</p>
+ * <p>令牌用一个"下一个令牌的理论到达时间"表示,取令牌就是用CAS把它向后推一个间隔,没有锁;
+ * 需要等待时在共享的时间轮上定时,不占用线程。令牌在take时就已预定,
+ * 等待中的promise被毁约时只是不再通知,预定的令牌不会退回。</p>
+ */
+public final class AsyncRateLimiter {
+    private final long mIntervalNanos;
+    private final long mBurstNanos;
+    //下一个令牌的理论到达时间
+    private final AtomicLong mNextFree;
+
+    /**
+     * @param permitsPerSecond 每秒补充的令牌数
+     * @param burst 空闲时最多积攒的令牌数
+     */
+    public AsyncRateLimiter(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0) throw new IllegalArgumentException("permitsPerSecond: " + permitsPerSecond);
+        if (burst <= 0) throw new IllegalArgumentException("burst: " + burst);
+        mIntervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        mBurstNanos = mIntervalNanos * burst;
+        mNextFree = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * 取得一个令牌,返回的promise的回调在executor上执行
+     */
+    public Promise<Void> take(Executor executor) {
+        long delay = reserve(true);
+        if (delay <= 0) {
+            return Promise.resolve((Void) null, executor, null);
+        }
+        return Promise.timer((Void) null, delay, TimeUnit.NANOSECONDS, executor);
+    }
+
+    /**
+     * @see #take(Executor)
+     */
+    public Promise<Void> take() {
+        return take(PromiseExecutors.currentThread());
+    }
+
+    /**
+     * 不需要等待时立即取得令牌并返回true,否则不预定令牌,返回false
+     */
+    public boolean tryTake() {
+        return reserve(false) <= 0;
+    }
+
+    /**
+     * 预定一个令牌,返回需要等待的纳秒数。wait为false且需要等待时不预定
+     */
+    private long reserve(boolean wait) {
+        for (;;) {
+            long now = System.nanoTime();
+            long next = mNextFree.get();
+            long updated = Math.max(next, now) + mIntervalNanos;
+            //理论到达时间最多领先当前时间burst个间隔,超出的部分需要等待
+            long delay = updated - now - mBurstNanos;
+            if (delay > 0 && !wait) {
+                return delay;
+            }
+            if (mNextFree.compareAndSet(next, updated)) {
+                return delay;
+            }
+        }
+    }
+}
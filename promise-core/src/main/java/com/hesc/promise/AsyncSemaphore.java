@@ -0,0 +1,136 @@
+package com.hesc.promise;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>不阻塞线程的信号量:{@link #acquire()}返回一个promise,取得许可时resolved,值为{@link Permit}。</p>
+ * <p>没有许可时等待者进入无锁队列,不占用线程;许可归还后按先来先得的顺序交给等待者,
+ * 等待者的回调在它自己的executor上执行。等待中的promise被毁约时放弃等待,不会占用许可。</p>
+ */
+public final class AsyncSemaphore {
+    private final AtomicInteger mPermits;
+    private final Queue<Waiter> mWaiters = new ConcurrentLinkedQueue<>();
+
+    public AsyncSemaphore(int permits) {
+        if (permits < 0) throw new IllegalArgumentException("permits: " + permits);
+        mPermits = new AtomicInteger(permits);
+    }
+
+    /**
+     * 取得一个许可,返回的promise的回调在executor上执行
+     */
+    public Promise<Permit> acquire(Executor executor) {
+        //有人在排队时不插队
+        if (mWaiters.isEmpty() && tryTake()) {
+            return Promise.<Permit>resolve(new SemaphorePermit(), executor, null);
+        }
+
+        Waiter waiter = new Waiter(executor);
+        Promise<Permit> promise = new Promise<>(waiter, executor);
+        waiter.mPromise = promise;
+        mWaiters.offer(waiter);
+        drain();
+        return promise;
+    }
+
+    /**
+     * @see #acquire(Executor)
+     */
+    public Promise<Permit> acquire() {
+        return acquire(PromiseExecutors.currentThread());
+    }
+
+    /**
+     * 有可用许可时立即取得,否则返回null
+     */
+    public Permit tryAcquire() {
+        return mWaiters.isEmpty() && tryTake() ? new SemaphorePermit() : null;
+    }
+
+    public int getAvailablePermits() {
+        return mPermits.get();
+    }
+
+    /**
+     * 等待许可的promise数量,包括已经被毁约但还没有移出队列的
+     */
+    public int getQueueLength() {
+        return mWaiters.size();
+    }
+
+    private boolean tryTake() {
+        int permits;
+        do {
+            permits = mPermits.get();
+            if (permits <= 0) return false;
+        } while (!mPermits.compareAndSet(permits, permits - 1));
+        return true;
+    }
+
+    private void release() {
+        mPermits.incrementAndGet();
+        drain();
+    }
+
+    /**
+     * 把可用的许可交给排队的等待者。归还许可和入队之后都要调用,避免两者交错时等待者没人唤醒
+     */
+    private void drain() {
+        while (!mWaiters.isEmpty() && tryTake()) {
+            Waiter waiter = mWaiters.poll();
+            if (waiter == null || waiter.mPromise.isBroken()) {
+                //队列已空或等待者已放弃,归还许可后再检查一次
+                mPermits.incrementAndGet();
+                continue;
+            }
+            grant(waiter);
+        }
+    }
+
+    /**
+     * 在等待者的executor上交付许可。派发期间等待者可能被毁约,它的回调不会再执行,许可要归还
+     */
+    private void grant(final Waiter waiter) {
+        final SemaphorePermit permit = new SemaphorePermit();
+        Trampoline.dispatch(waiter.mExecutor, new Runnable() {
+            @Override
+            public void run() {
+                if (waiter.mHandler.isBroken()) {
+                    permit.release();
+                    return;
+                }
+                waiter.mHandler.resolve(permit);
+            }
+        });
+    }
+
+    private final class SemaphorePermit implements Permit {
+        private final AtomicBoolean mReleased = new AtomicBoolean();
+
+        @Override
+        public void release() {
+            if (mReleased.compareAndSet(false, true)) {
+                AsyncSemaphore.this.release();
+            }
+        }
+    }
+
+    private static final class Waiter implements Action<PromiseHandler<Permit>> {
+        final Executor mExecutor;
+        PromiseHandler<Permit> mHandler;
+        volatile Promise<Permit> mPromise;
+
+        Waiter(Executor executor) {
+            mExecutor = executor;
+        }
+
+        @Override
+        public void call(PromiseHandler<Permit> promiseHandler) {
+            mHandler = promiseHandler;
+        }
+    }
+}
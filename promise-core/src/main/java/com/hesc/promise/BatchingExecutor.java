@@ -0,0 +1,70 @@
+package com.hesc.promise;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>合并投递的串行executor。</p>
+ * <p>任务先进入无锁队列,队列从空变为非空时才向目标executor(例如looper或事件循环)投递一个排空任务,
+ * 由它依次执行这一批任务,一次突发的上百个续体只占用一条消息。
+ * 每次排空最多执行budget纳秒,超时后把剩余任务重新投递,让出消息循环给绘制等其他消息。</p>
+ * <p>目标executor必须串行执行任务(单线程消息循环),任务按提交顺序执行。</p>
+ */
+final class BatchingExecutor implements Executor, Runnable {
+
+    private final Executor mTarget;
+    private final long mBudgetNanos;
+    private final Queue<Runnable> mQueue = new ConcurrentLinkedQueue<>();
+    //是否已经投递了排空任务
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+
+    BatchingExecutor(Executor target, long budgetNanos) {
+        if (target == null) throw new NullPointerException("target");
+        mTarget = target;
+        mBudgetNanos = budgetNanos;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) throw new NullPointerException();
+        mQueue.offer(command);
+        if (mScheduled.compareAndSet(false, true)) {
+            mTarget.execute(this);
+        }
+    }
+
+    /**
+     * 排空任务,只会由目标executor调用
+     */
+    @Override
+    public void run() {
+        long deadline = System.nanoTime() + mBudgetNanos;
+        boolean reschedule = true;
+        try {
+            for (;;) {
+                Runnable task = mQueue.poll();
+                if (task == null) {
+                    mScheduled.set(false);
+                    //清除标记与别的线程入队之间可能有竞争,再检查一次
+                    if (mQueue.isEmpty() || !mScheduled.compareAndSet(false, true)) {
+                        reschedule = false;
+                        return;
+                    }
+                    continue;
+                }
+
+                task.run();
+                if (System.nanoTime() - deadline >= 0 && !mQueue.isEmpty()) {
+                    return;
+                }
+            }
+        } finally {
+            //超出时间预算或任务抛出异常时,剩余任务在下一条消息中继续执行
+            if (reschedule) {
+                mTarget.execute(this);
+            }
+        }
+    }
+}
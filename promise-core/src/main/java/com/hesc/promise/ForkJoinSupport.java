@@ -0,0 +1,106 @@
+package com.hesc.promise;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>{@link ManagedExecutor.Computation}用到的ForkJoin相关操作。</p>
+ * <p>所有ForkJoin类型的引用都集中在这里,只有运行时支持ForkJoinPool时才会加载本类,
+ * android 5.0以下退回到固定大小线程池时不会因为找不到类而出错。</p>
+ */
+final class ForkJoinSupport {
+
+    private ForkJoinSupport() {
+    }
+
+    /**
+     * 创建async模式的ForkJoinPool,工作线程名为"promise-{name}-{序号}"
+     */
+    static ExecutorService create(String name, int parallelism) {
+        return new ForkJoinPool(parallelism, new NamedWorkerThreadFactory(name), null, true);
+    }
+
+    /**
+     * 当前线程是service的工作线程时,把command放入它自己的队列并返回true,否则返回false
+     */
+    static boolean tryFork(ExecutorService service, Runnable command) {
+        if (!(service instanceof ForkJoinPool)) return false;
+
+        Thread thread = Thread.currentThread();
+        if (thread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) thread).getPool() == service) {
+            new RunnableTask(command).fork();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 排队等待执行的任务数,不是ForkJoinPool时返回-1
+     */
+    static int getQueueSize(ExecutorService service) {
+        if (!(service instanceof ForkJoinPool)) return -1;
+
+        ForkJoinPool pool = (ForkJoinPool) service;
+        return (int) Math.min(Integer.MAX_VALUE, pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount());
+    }
+
+    /**
+     * 正在执行任务的线程数,不是ForkJoinPool时返回-1
+     */
+    static int getActiveCount(ExecutorService service) {
+        return service instanceof ForkJoinPool ? ((ForkJoinPool) service).getActiveThreadCount() : -1;
+    }
+
+    /**
+     * fork到工作线程队列的任务,异常交给线程的UncaughtExceptionHandler,与线程池执行任务时的处理一致
+     */
+    private static final class RunnableTask extends ForkJoinTask<Void> {
+        private final Runnable mRunnable;
+
+        RunnableTask(Runnable runnable) {
+            mRunnable = runnable;
+        }
+
+        @Override
+        public Void getRawResult() {
+            return null;
+        }
+
+        @Override
+        protected void setRawResult(Void value) {
+        }
+
+        @Override
+        protected boolean exec() {
+            try {
+                mRunnable.run();
+            } catch (Throwable e) {
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 线程名为"promise-{name}-{序号}"的ForkJoin工作线程工厂
+     */
+    private static final class NamedWorkerThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+        private final String mPrefix;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        NamedWorkerThreadFactory(String name) {
+            mPrefix = "promise-" + name + "-";
+        }
+
+        @Override
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName(mPrefix + mCount.incrementAndGet());
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.hesc.promise;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * <p>哈希时间轮定时器,所有promise共用一个工作线程。</p>
+ * <p>新增定时任务只是无锁入队,时间复杂度O(1);工作线程每个tick把新任务分配到对应的槽位,
+ * 再执行当前槽位中到期的任务。取消的任务由工作线程统一从槽位摘除,不会一直占用内存。</p>
+ * <p>到期任务在工作线程上执行,只应做派发之类的轻量操作;会在就地执行的executor上结束promise的定时
+ * 使用{@link #newTimeout(Runnable, long, TimeUnit, Executor)},避免用户回调在工作线程上执行。</p>
+ */
+final class HashedWheelTimer {
+
+    //默认tick时长(毫秒)
+    private static final long DEFAULT_TICK_MILLIS = 10;
+    //默认槽位数,必须是2的幂
+    private static final int DEFAULT_WHEEL_SIZE = 512;
+    //每个tick最多从新任务队列转移的个数,避免大量新增任务时饿死到期任务
+    private static final int MAX_TRANSFER_PER_TICK = 100000;
+
+    private static class Holder {
+        static final HashedWheelTimer INSTANCE = new HashedWheelTimer(
+                DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_WHEEL_SIZE, "promise-timer");
+    }
+
+    /**
+     * 共享的定时器,第一次使用时才创建工作线程
+     */
+    static HashedWheelTimer shared() {
+        return Holder.INSTANCE;
+    }
+
+    private final long mTickDuration;
+    private final Bucket[] mWheel;
+    private final int mMask;
+    private final long mStartTime;
+    private final Queue<Timeout> mPendingTimeouts = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> mCancelledTimeouts = new ConcurrentLinkedQueue<>();
+
+    HashedWheelTimer(long tickDuration, TimeUnit unit, int wheelSize, String threadName) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration must be greater than 0: " + tickDuration);
+        }
+        if (wheelSize <= 0 || (wheelSize & (wheelSize - 1)) != 0) {
+            throw new IllegalArgumentException("wheelSize must be a power of 2: " + wheelSize);
+        }
+
+        mTickDuration = unit.toNanos(tickDuration);
+        mWheel = new Bucket[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            mWheel[i] = new Bucket();
+        }
+        mMask = wheelSize - 1;
+        mStartTime = System.nanoTime();
+
+        Thread worker = new Thread(new Worker(), threadName);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * 在delay之后执行task,返回的{@link Timeout}可用于取消
+     */
+    Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        if (task == null) {
+            throw new IllegalArgumentException("parameter task is null");
+        }
+
+        long deadline = System.nanoTime() + unit.toNanos(Math.max(0, delay)) - mStartTime;
+        Timeout timeout = new Timeout(this, task, deadline);
+        mPendingTimeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * 同{@link #newTimeout(Runnable, long, TimeUnit)},task会结束回调在executor上执行的promise。<br/>
+     * executor就地执行时(immediate(),以及没有平台provider时的currentThread()),到期后先把task转到
+     * {@link PromiseExecutors#computation()}上执行,一个慢回调不会占用所有定时共用的工作线程,推迟其他定时
+     */
+    Timeout newTimeout(final Runnable task, long delay, TimeUnit unit, Executor executor) {
+        if (executor != PromiseExecutors.immediate()) {
+            return newTimeout(task, delay, unit);
+        }
+        return newTimeout(new Runnable() {
+            @Override
+            public void run() {
+                PromiseExecutors.computation().execute(task);
+            }
+        }, delay, unit);
+    }
+
+    /**
+     * 待执行的定时任务
+     */
+    static final class Timeout {
+        private static final int ST_INIT = 0;
+        private static final int ST_CANCELLED = 1;
+        private static final int ST_EXPIRED = 2;
+
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE_UPDATER =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "mState");
+
+        private final HashedWheelTimer mTimer;
+        private final Runnable mTask;
+        private final long mDeadline;
+        private volatile int mState = ST_INIT;
+
+        //以下字段只由工作线程访问
+        private long mRemainingRounds;
+        private Timeout mNext;
+        private Timeout mPrev;
+        private Bucket mBucket;
+
+        Timeout(HashedWheelTimer timer, Runnable task, long deadline) {
+            mTimer = timer;
+            mTask = task;
+            mDeadline = deadline;
+        }
+
+        /**
+         * 取消定时任务,任务已经执行或已取消时返回false
+         */
+        boolean cancel() {
+            if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_CANCELLED)) {
+                return false;
+            }
+            mTimer.mCancelledTimeouts.add(this);
+            return true;
+        }
+
+        boolean isCancelled() {
+            return mState == ST_CANCELLED;
+        }
+
+        boolean isExpired() {
+            return mState == ST_EXPIRED;
+        }
+
+        private void expire() {
+            if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_EXPIRED)) {
+                return;
+            }
+            try {
+                mTask.run();
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 时间轮槽位,双向链表,只由工作线程访问
+     */
+    private static final class Bucket {
+        private Timeout mHead;
+        private Timeout mTail;
+
+        void add(Timeout timeout) {
+            timeout.mBucket = this;
+            if (mHead == null) {
+                mHead = mTail = timeout;
+            } else {
+                mTail.mNext = timeout;
+                timeout.mPrev = mTail;
+                mTail = timeout;
+            }
+        }
+
+        Timeout remove(Timeout timeout) {
+            Timeout next = timeout.mNext;
+            if (timeout.mPrev != null) {
+                timeout.mPrev.mNext = next;
+            }
+            if (timeout.mNext != null) {
+                timeout.mNext.mPrev = timeout.mPrev;
+            }
+            if (timeout == mHead) {
+                mHead = next;
+            }
+            if (timeout == mTail) {
+                mTail = timeout.mPrev;
+            }
+            timeout.mPrev = null;
+            timeout.mNext = null;
+            timeout.mBucket = null;
+            return next;
+        }
+
+        void expireTimeouts(long deadline) {
+            Timeout timeout = mHead;
+            while (timeout != null) {
+                if (timeout.isCancelled()) {
+                    timeout = remove(timeout);
+                } else if (timeout.mRemainingRounds <= 0 && timeout.mDeadline <= deadline) {
+                    Timeout next = remove(timeout);
+                    timeout.expire();
+                    timeout = next;
+                } else {
+                    timeout.mRemainingRounds--;
+                    timeout = timeout.mNext;
+                }
+            }
+        }
+    }
+
+    private final class Worker implements Runnable {
+        private long mTick;
+
+        @Override
+        public void run() {
+            while (true) {
+                long deadline = waitForNextTick();
+                processCancelledTimeouts();
+                transferTimeoutsToBuckets();
+                mWheel[(int) (mTick & mMask)].expireTimeouts(deadline);
+                mTick++;
+            }
+        }
+
+        private void processCancelledTimeouts() {
+            Timeout timeout;
+            while ((timeout = mCancelledTimeouts.poll()) != null) {
+                if (timeout.mBucket != null) {
+                    timeout.mBucket.remove(timeout);
+                }
+            }
+        }
+
+        private void transferTimeoutsToBuckets() {
+            for (int i = 0; i < MAX_TRANSFER_PER_TICK; i++) {
+                Timeout timeout = mPendingTimeouts.poll();
+                if (timeout == null) {
+                    break;
+                }
+                if (timeout.isCancelled()) {
+                    continue;
+                }
+
+                long calculated = timeout.mDeadline / mTickDuration;
+                timeout.mRemainingRounds = (calculated - mTick) / mWheel.length;
+                //已经过期的任务放到当前槽位,本tick就执行
+                long ticks = Math.max(calculated, mTick);
+                mWheel[(int) (ticks & mMask)].add(timeout);
+            }
+        }
+
+        private long waitForNextTick() {
+            long deadline = mTickDuration * (mTick + 1);
+            while (true) {
+                long currentTime = System.nanoTime() - mStartTime;
+                long sleepMillis = (deadline - currentTime + 999999) / 1000000;
+                if (sleepMillis <= 0) {
+                    return currentTime;
+                }
+                try {
+                    Thread.sleep(sleepMillis);
+                } catch (InterruptedException e) {
+                    //共享定时器不响应中断,继续等待下一个tick
+                }
+            }
+        }
+    }
+}
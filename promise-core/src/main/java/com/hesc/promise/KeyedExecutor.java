@@ -0,0 +1,123 @@
+package com.hesc.promise;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>按key串行执行任务的executor集合,由{@link PromiseExecutors#keyed(Executor)}创建。</p>
+ * <p>同一个key的任务按提交顺序依次执行,不同key的任务在backing上并行执行。
+ * 每个有任务的key只占用一个无锁队列,不占用线程;队列排空后从表中移除,
+ * 因此大量key可以共用一个很小的线程池。</p>
+ */
+public final class KeyedExecutor<K> {
+
+    //一个key每次占用backing线程最多执行的任务数,之后重新提交,让其他key有机会执行
+    private static final int THROUGHPUT = 64;
+
+    private final Executor mBacking;
+    private final ConcurrentMap<K, Serial> mSerials = new ConcurrentHashMap<>();
+
+    KeyedExecutor(Executor backing) {
+        if (backing == null) throw new NullPointerException("backing");
+        mBacking = backing;
+    }
+
+    /**
+     * 返回key对应的串行executor,同一个key在任何时候最多只有一个任务在执行
+     */
+    public Executor get(final K key) {
+        if (key == null) throw new NullPointerException("key");
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                KeyedExecutor.this.execute(key, command);
+            }
+        };
+    }
+
+    /**
+     * 把任务提交到key对应的队列
+     */
+    public void execute(K key, Runnable command) {
+        if (key == null || command == null) throw new NullPointerException();
+        for (;;) {
+            Serial serial = mSerials.get(key);
+            if (serial == null) {
+                Serial created = new Serial(key);
+                serial = mSerials.putIfAbsent(key, created);
+                if (serial == null) serial = created;
+            }
+            if (serial.offer(command)) {
+                return;
+            }
+            //队列刚刚排空并关闭,帮助移除后重试
+            mSerials.remove(key, serial);
+        }
+    }
+
+    /**
+     * 当前有任务排队或执行中的key的数量
+     */
+    public int size() {
+        return mSerials.size();
+    }
+
+    private final class Serial implements Runnable {
+        private static final int CLOSED = -1;
+
+        private final K mKey;
+        private final Queue<Runnable> mQueue = new ConcurrentLinkedQueue<>();
+        //已提交未执行完的任务数,CLOSED表示队列已排空关闭,不再接受任务
+        private final AtomicInteger mPending = new AtomicInteger();
+
+        Serial(K key) {
+            mKey = key;
+        }
+
+        boolean offer(Runnable command) {
+            int pending;
+            do {
+                pending = mPending.get();
+                if (pending == CLOSED) return false;
+            } while (!mPending.compareAndSet(pending, pending + 1));
+
+            mQueue.offer(command);
+            //只有新建的队列会从0开始计数,之后由排空任务自己决定是否重新提交
+            if (pending == 0) {
+                mBacking.execute(this);
+            }
+            return true;
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < THROUGHPUT; i++) {
+                Runnable task = mQueue.poll();
+                if (task == null) {
+                    //已经计数但还没有入队,等待提交线程完成入队
+                    Thread.yield();
+                    i--;
+                    continue;
+                }
+
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    Thread thread = Thread.currentThread();
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+                }
+
+                if (mPending.compareAndSet(1, CLOSED)) {
+                    mSerials.remove(mKey, this);
+                    return;
+                }
+                mPending.decrementAndGet();
+            }
+            mBacking.execute(this);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.hesc.promise;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>对数-线性分桶的耗时直方图,与HdrHistogram的分桶方式类似:
+ * 每个2的幂区间再等分成4个桶,相对误差不超过25%,覆盖从1纳秒到Long.MAX_VALUE的范围。</p>
+ * <p>记录只需要计算桶下标和一次原子自增,没有锁,也不分配对象。</p>
+ */
+public final class LatencyHistogram {
+    //每个2的幂区间的子桶数为2^SUB_BITS
+    private static final int SUB_BITS = 2;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKET_COUNT = SUB_COUNT + (63 - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mTotal = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * 记录一个值,小于0的值按0记录
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        mBuckets.incrementAndGet(indexOf(nanos));
+        mCount.incrementAndGet();
+        mTotal.addAndGet(nanos);
+        long max;
+        while (nanos > (max = mMax.get()) && !mMax.compareAndSet(max, nanos)) {
+        }
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getMax(TimeUnit unit) {
+        return unit.convert(mMax.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getMean(TimeUnit unit) {
+        long count = mCount.get();
+        return count == 0 ? 0 : unit.convert(mTotal.get() / count, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 百分位数(0到1之间)的近似值,返回所在桶的上界,不超过记录过的最大值
+     */
+    public long getPercentile(double percentile, TimeUnit unit) {
+        long count = mCount.get();
+        if (count == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(count * percentile));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mBuckets.get(i);
+            if (seen >= target) {
+                return unit.convert(Math.min(upperBound(i), mMax.get()), TimeUnit.NANOSECONDS);
+            }
+        }
+        return getMax(unit);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mBuckets.set(i, 0);
+        }
+        mCount.set(0);
+        mTotal.set(0);
+        mMax.set(0);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_COUNT) return (int) value;
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int shift = msb - SUB_BITS;
+        int sub = (int) (value >>> shift) & (SUB_COUNT - 1);
+        return SUB_COUNT + shift * SUB_COUNT + sub;
+    }
+
+    static long upperBound(int index) {
+        if (index < SUB_COUNT) return index;
+        int shift = (index - SUB_COUNT) / SUB_COUNT;
+        int sub = (index - SUB_COUNT) % SUB_COUNT;
+        long lower = (long) (SUB_COUNT + sub) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
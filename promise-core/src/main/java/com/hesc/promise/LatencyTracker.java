@@ -0,0 +1,73 @@
+package com.hesc.promise;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>记录最近若干次调用的耗时,估计耗时的百分位数,
+ * 用作{@link Promise#hedge(Supplier, LatencyTracker, int, java.util.concurrent.Executor, String)}的自适应对冲延迟。</p>
+ * <p>样本保存在环形数组中,写入无锁;百分位数每记录sampleSize/8次重新计算一次,读取不需要排序。
+ * 样本不足时返回初始延迟。</p>
+ */
+public final class LatencyTracker {
+    private final AtomicLongArray mSamples;
+    //记录的总次数,用long避免长期运行后溢出成负的下标
+    private final AtomicLong mCount = new AtomicLong();
+    private final double mPercentile;
+    private final long mInitialNanos;
+    private final int mRefreshInterval;
+    private volatile long mEstimateNanos;
+
+    /**
+     * @param sampleSize 保留的样本数
+     * @param percentile 估计的百分位,例如0.95
+     * @param initialDelay 样本不足时使用的值
+     */
+    public LatencyTracker(int sampleSize, double percentile, long initialDelay, TimeUnit unit) {
+        if (sampleSize <= 0) throw new IllegalArgumentException("sampleSize: " + sampleSize);
+        if (percentile <= 0 || percentile > 1) throw new IllegalArgumentException("percentile: " + percentile);
+        mSamples = new AtomicLongArray(sampleSize);
+        mPercentile = percentile;
+        mInitialNanos = unit.toNanos(initialDelay);
+        mRefreshInterval = Math.max(1, sampleSize / 8);
+        mEstimateNanos = mInitialNanos;
+    }
+
+    /**
+     * 保留最近128个样本,估计p95
+     */
+    public LatencyTracker(long initialDelay, TimeUnit unit) {
+        this(128, 0.95, initialDelay, unit);
+    }
+
+    /**
+     * 记录一次调用的耗时
+     */
+    public void record(long latency, TimeUnit unit) {
+        long count = mCount.getAndIncrement();
+        mSamples.set((int) (count % mSamples.length()), unit.toNanos(latency));
+        //样本足够之后定期重新估计
+        if (count + 1 >= mRefreshInterval && (count + 1) % mRefreshInterval == 0) {
+            refresh((int) Math.min(count + 1, mSamples.length()));
+        }
+    }
+
+    /**
+     * 当前估计的百分位耗时
+     */
+    public long getEstimate(TimeUnit unit) {
+        return unit.convert(mEstimateNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void refresh(int size) {
+        long[] sorted = new long[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = mSamples.get(i);
+        }
+        Arrays.sort(sorted);
+        int index = Math.min(size - 1, (int) Math.ceil(size * mPercentile) - 1);
+        mEstimateNanos = sorted[Math.max(0, index)];
+    }
+}
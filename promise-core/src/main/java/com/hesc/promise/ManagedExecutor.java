@@ -0,0 +1,233 @@
+package com.hesc.promise;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>{@link PromiseExecutors}中可管理的单例executor。</p>
+ * <p>底层线程池在第一次执行任务时才创建,创建之前可以修改配置;
+ * {@link #shutdown()}之后再执行任务会重新创建线程池。</p>
+ */
+abstract class ManagedExecutor implements Executor {
+
+    private final String mName;
+    private volatile ExecutorService mService;
+
+    ManagedExecutor(String name) {
+        mName = name;
+    }
+
+    String getName() {
+        return mName;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        service().execute(command);
+    }
+
+    ExecutorService service() {
+        ExecutorService service = mService;
+        if (service == null) {
+            synchronized (this) {
+                service = mService;
+                if (service == null) {
+                    service = mService = create();
+                }
+            }
+        }
+        return service;
+    }
+
+    /**
+     * 线程池是否已经创建,创建之后不能再修改配置
+     */
+    boolean isStarted() {
+        return mService != null;
+    }
+
+    /**
+     * 当前的线程池,没有创建时返回null,不会触发创建
+     */
+    ExecutorService current() {
+        return mService;
+    }
+
+    abstract ExecutorService create();
+
+    /**
+     * 关闭当前线程池,已提交的任务继续执行,返回被关闭的线程池;没有创建时返回null
+     */
+    synchronized ExecutorService shutdown() {
+        ExecutorService service = mService;
+        mService = null;
+        if (service != null) {
+            service.shutdown();
+        }
+        return service;
+    }
+
+    /**
+     * 排队等待执行的任务数,不是线程池时返回-1
+     */
+    int getQueueSize() {
+        ExecutorService service = current();
+        return service instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) service).getQueue().size() : -1;
+    }
+
+    /**
+     * 正在执行任务的线程数,不是线程池时返回-1
+     */
+    int getActiveCount() {
+        ExecutorService service = current();
+        return service instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) service).getActiveCount() : -1;
+    }
+
+    /**
+     * 固定大小或可伸缩的线程池
+     */
+    static class Pool extends ManagedExecutor {
+        private volatile int mCoreSize;
+        private volatile int mMaxSize;
+        private final long mKeepAliveSeconds;
+        private volatile ThreadFactory mThreadFactory;
+
+        Pool(String name, int coreSize, int maxSize, long keepAliveSeconds) {
+            super(name);
+            mCoreSize = coreSize;
+            mMaxSize = maxSize;
+            mKeepAliveSeconds = keepAliveSeconds;
+        }
+
+        synchronized void setPoolSize(int coreSize, int maxSize) {
+            if (coreSize < 0 || maxSize <= 0 || coreSize > maxSize) {
+                throw new IllegalArgumentException(String.format("illegal pool size: core=%d, max=%d", coreSize, maxSize));
+            }
+            checkNotStarted();
+            mCoreSize = coreSize;
+            mMaxSize = maxSize;
+        }
+
+        synchronized void setThreadFactory(ThreadFactory threadFactory) {
+            checkNotStarted();
+            mThreadFactory = threadFactory;
+        }
+
+        int getCoreSize() {
+            return mCoreSize;
+        }
+
+        ThreadFactory getThreadFactory() {
+            return mThreadFactory;
+        }
+
+        private void checkNotStarted() {
+            if (isStarted()) {
+                throw new IllegalStateException(String.format("executor[%s]已经启动, 需要先shutdown才能修改配置", getName()));
+            }
+        }
+
+        @Override
+        ExecutorService create() {
+            ThreadFactory threadFactory = mThreadFactory;
+            if (threadFactory == null) {
+                threadFactory = new NamedThreadFactory(getName());
+            }
+            //不限制最大线程数时直接交给新线程
+            if (mMaxSize == Integer.MAX_VALUE) {
+                return new ThreadPoolExecutor(mCoreSize, mMaxSize, mKeepAliveSeconds, TimeUnit.SECONDS,
+                        new SynchronousQueue<Runnable>(), threadFactory);
+            }
+            //有上限时线程都在忙的任务进入无界队列等待,而不是被拒绝。ThreadPoolExecutor只有核心线程满了才排队,
+            //所以核心线程数取最大线程数,超出原核心线程数的部分空闲时超时回收
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(mMaxSize, mMaxSize, mKeepAliveSeconds, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), threadFactory);
+            if (mCoreSize < mMaxSize && mKeepAliveSeconds > 0) {
+                pool.allowCoreThreadTimeOut(true);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * <p>计算线程池,使用async模式的ForkJoinPool:每个工作线程有自己的任务队列,
+     * 空闲时从其他线程窃取任务,提交任务不再竞争同一个队列锁。</p>
+     * <p>在工作线程上触发的续体放入该线程自己的队列,由同一个线程接着执行,缓存更友好。
+     * 设置了线程工厂或运行时没有ForkJoinPool(android 5.0以下)时,退回到固定大小的线程池。
+     * ForkJoin类型只在{@link ForkJoinSupport}中引用,不支持时不会被加载。</p>
+     */
+    static final class Computation extends Pool {
+        private static final boolean FORK_JOIN_SUPPORTED = isForkJoinSupported();
+
+        Computation(String name, int size) {
+            super(name, size, size, 0);
+        }
+
+        private static boolean isForkJoinSupported() {
+            try {
+                Class.forName("java.util.concurrent.ForkJoinPool");
+                return true;
+            } catch (Throwable e) {
+                return false;
+            }
+        }
+
+        @Override
+        ExecutorService create() {
+            if (!FORK_JOIN_SUPPORTED || getThreadFactory() != null) {
+                return super.create();
+            }
+            return ForkJoinSupport.create(getName(), getCoreSize());
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            ExecutorService service = service();
+            //当前就是本线程池的工作线程时,放入自己的队列
+            if (!FORK_JOIN_SUPPORTED || !ForkJoinSupport.tryFork(service, command)) {
+                service.execute(command);
+            }
+        }
+
+        @Override
+        int getQueueSize() {
+            ExecutorService service = current();
+            if (FORK_JOIN_SUPPORTED && !(service instanceof ThreadPoolExecutor)) {
+                return ForkJoinSupport.getQueueSize(service);
+            }
+            return super.getQueueSize();
+        }
+
+        @Override
+        int getActiveCount() {
+            ExecutorService service = current();
+            if (FORK_JOIN_SUPPORTED && !(service instanceof ThreadPoolExecutor)) {
+                return ForkJoinSupport.getActiveCount(service);
+            }
+            return super.getActiveCount();
+        }
+    }
+
+    /**
+     * 线程名为"promise-{name}-{序号}"的线程工厂
+     */
+    static final class NamedThreadFactory implements ThreadFactory {
+        private final String mPrefix;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        NamedThreadFactory(String name) {
+            mPrefix = "promise-" + name + "-";
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, mPrefix + mCount.incrementAndGet());
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.hesc.promise;
+
+/**
+ * {@link AsyncSemaphore#acquire()}和{@link AsyncMutex#lock()}得到的许可,用完后调用{@link #release()}归还
+ */
+public interface Permit {
+    /**
+     * 归还许可,重复调用只归还一次
+     */
+    void release();
+}
@@ -0,0 +1,170 @@
+package com.hesc.promise;
+
+import java.util.Comparator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>按截止时间调度的executor集合,由{@link PromiseExecutors#prioritized(Executor)}创建。</p>
+ * <p>任务先进入按截止时间排序的队列,每提交一个任务向backing投递一个取任务的runnable,
+ * 它执行时取出的是当时截止时间最早的任务(earliest-deadline-first),backing本身是否FIFO不影响顺序。</p>
+ * <p>优先级任务的截止时间为提交时间加上该优先级的延迟预算,等待越久的低优先级任务截止时间越靠前,
+ * 最终会排到新提交的高优先级任务之前,不会被饿死。</p>
+ * <p>promise的回调默认在创建它的executor上执行,用{@link #priority(int)}或{@link #deadline(int, long, TimeUnit)}
+ * 返回的executor创建promise,它的then链都继承同样的优先级或截止时间。</p>
+ */
+public final class PriorityScheduler {
+    public static final int PRIORITY_HIGH = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_LOW = 2;
+
+    private static final int PRIORITY_COUNT = 3;
+
+    private static final Comparator<Task> EDF = new Comparator<Task>() {
+        @Override
+        public int compare(Task lhs, Task rhs) {
+            long diff = lhs.mDeadline - rhs.mDeadline;
+            if (diff == 0) {
+                diff = lhs.mSequence - rhs.mSequence;
+            }
+            return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+        }
+    };
+
+    private final Executor mBacking;
+    private final PriorityBlockingQueue<Task> mQueue = new PriorityBlockingQueue<>(16, EDF);
+    private final AtomicLong mSequence = new AtomicLong();
+    //每个优先级的延迟预算
+    private final long[] mBudgetNanos;
+    private final Executor[] mPriorityExecutors = new Executor[PRIORITY_COUNT];
+
+    //每个优先级的排队等待统计
+    private final AtomicLong[] mWaitCount = new AtomicLong[PRIORITY_COUNT];
+    private final AtomicLong[] mWaitTotalNanos = new AtomicLong[PRIORITY_COUNT];
+    private final AtomicLong[] mWaitMaxNanos = new AtomicLong[PRIORITY_COUNT];
+
+    private final Runnable mRunner = new Runnable() {
+        @Override
+        public void run() {
+            Task task = mQueue.poll();
+            if (task != null) {
+                record(task.mPriority, System.nanoTime() - task.mEnqueueTime);
+                task.mRunnable.run();
+            }
+        }
+    };
+
+    PriorityScheduler(Executor backing, long normalBudget, long lowBudget, TimeUnit unit) {
+        if (backing == null) throw new NullPointerException("backing");
+        mBacking = backing;
+        mBudgetNanos = new long[]{0, unit.toNanos(normalBudget), unit.toNanos(lowBudget)};
+        for (int i = 0; i < PRIORITY_COUNT; i++) {
+            final int priority = i;
+            mPriorityExecutors[i] = new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    long now = System.nanoTime();
+                    submit(priority, now + mBudgetNanos[priority], now, command);
+                }
+            };
+            mWaitCount[i] = new AtomicLong();
+            mWaitTotalNanos[i] = new AtomicLong();
+            mWaitMaxNanos[i] = new AtomicLong();
+        }
+    }
+
+    /**
+     * 返回指定优先级的executor,每个任务的截止时间为提交时间加上该优先级的延迟预算。
+     * 同一优先级每次返回同一个executor
+     */
+    public Executor priority(int priority) {
+        checkPriority(priority);
+        return mPriorityExecutors[priority];
+    }
+
+    /**
+     * 返回固定截止时间的executor:截止时间在调用时确定为timeout之后,
+     * 经由它执行的所有任务(包括后续的then回调)都使用这个截止时间,统计计入priority
+     */
+    public Executor deadline(final int priority, long timeout, TimeUnit unit) {
+        checkPriority(priority);
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                submit(priority, deadline, System.nanoTime(), command);
+            }
+        };
+    }
+
+    /**
+     * 排队等待执行的任务数
+     */
+    public int getQueueSize() {
+        return mQueue.size();
+    }
+
+    /**
+     * 指定优先级已经开始执行的任务数
+     */
+    public long getWaitCount(int priority) {
+        checkPriority(priority);
+        return mWaitCount[priority].get();
+    }
+
+    /**
+     * 指定优先级的任务平均排队等待时间
+     */
+    public long getAverageWait(int priority, TimeUnit unit) {
+        checkPriority(priority);
+        long count = mWaitCount[priority].get();
+        return count == 0 ? 0 : unit.convert(mWaitTotalNanos[priority].get() / count, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 指定优先级的任务最长排队等待时间
+     */
+    public long getMaxWait(int priority, TimeUnit unit) {
+        checkPriority(priority);
+        return unit.convert(mWaitMaxNanos[priority].get(), TimeUnit.NANOSECONDS);
+    }
+
+    private void submit(int priority, long deadline, long now, Runnable command) {
+        if (command == null) throw new NullPointerException();
+        mQueue.offer(new Task(priority, deadline, mSequence.getAndIncrement(), now, command));
+        mBacking.execute(mRunner);
+    }
+
+    private void record(int priority, long waitNanos) {
+        mWaitCount[priority].incrementAndGet();
+        mWaitTotalNanos[priority].addAndGet(waitNanos);
+        AtomicLong max = mWaitMaxNanos[priority];
+        long current;
+        while (waitNanos > (current = max.get()) && !max.compareAndSet(current, waitNanos)) {
+        }
+    }
+
+    private static void checkPriority(int priority) {
+        if (priority < 0 || priority >= PRIORITY_COUNT) {
+            throw new IllegalArgumentException("priority: " + priority);
+        }
+    }
+
+    private static final class Task {
+        final int mPriority;
+        final long mDeadline;
+        final long mSequence;
+        final long mEnqueueTime;
+        final Runnable mRunnable;
+
+        Task(int priority, long deadline, long sequence, long enqueueTime, Runnable runnable) {
+            mPriority = priority;
+            mDeadline = deadline;
+            mSequence = sequence;
+            mEnqueueTime = enqueueTime;
+            mRunnable = runnable;
+        }
+    }
+}
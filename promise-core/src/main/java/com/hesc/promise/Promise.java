@@ -0,0 +1,2048 @@
+package com.hesc.promise;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Created by hesc on 16/6/13.
+ * <p>promise来源于js里的异步编程框架,翻译为"承诺"。<br/>
+ * 所谓promise，简单说就是一个容器，里面保存着某个未来才会结束的事件（通常是一个异步操作）的结果。</p>
+ * <p>promise对象有以下两个特点。</p>
+ * <ul>
+ * <li>对象的状态不受外界影响。promise对象代表一个异步操作，有三种状态：pending（进行中）、
+ * resolved（已完成，又称fulfilled）和rejected（已失败）。只有异步操作的结果，可以决定当前是哪一种状态，
+ * 任何其他操作都无法改变这个状态。这也是promise这个名字的由来，它的英语意思就是“承诺”，表示其他手段无法改变。</li>
+ * <li>一旦状态改变，就不会再变，任何时候都可以得到这个结果。promise对象的状态改变，
+ * 只有两种可能：从pending变为resolved和从pending变为rejected。只要这两种情况发生，
+ * 状态就凝固了，不会再变了，会一直保持这个结果。就算改变已经发生了，你再对promise对象添加回调函数，
+ * 也会立即得到这个结果。这与事件（event）完全不同，事件的特点是，如果你错过了它，再去监听，是得不到结果的。</li>
+ * </ul>
+ * <p>有了promise对象，就可以将异步操作以同步操作的流程表达出来，避免了层层嵌套的回调函数。此外，promise对象提供统一的接口，使得控制异步操作更加容易。</p>
+ *
+ */
+public final class Promise<T> {
+    //状态:未执行
+    static final int STATE_PENDING = 0;
+    //状态:执行成功
+    static final int STATE_RESOLVED = 1;
+    //状态:执行失败
+    static final int STATE_REJECTED = 2;
+    //状态:已抢占状态变化权,正在写入结果,对外仍视为未完成
+    static final int STATE_COMPLETING = 3;
+
+    private static final AtomicIntegerFieldUpdater<Promise> STATE_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(Promise.class, "mState");
+    private static final AtomicReferenceFieldUpdater<Promise, Runnable> STARTER_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(Promise.class, Runnable.class, "mStarter");
+
+    //生命周期监听器,为null时各事件点只有一次字段读取
+    private static volatile PromiseListener sListener;
+
+    //promise状态,只通过CAS从pending切换,读写都不加锁
+    private volatile int mState = STATE_PENDING;
+    //回调处理类
+    private InternalPromiseHandler<T> mPromiseHandler;
+    //毁约类,then链上的promise共享同一个
+    private Broken mBroken;
+    //在共享毁约状态的then链上的深度,链首为0
+    private int mDepth;
+    //执行类
+    private Executor mExecutor;
+    //promise的名称
+    private String mName;
+    //惰性promise第一次被订阅或等待时执行的启动操作,执行后置为null
+    private volatile Runnable mStarter;
+    //创建时间,只在安装了监听器时记录
+    private long mCreatedAt;
+
+    private Promise(Broken broken, Executor executor, String name){
+        mExecutor = executor;
+        mPromiseHandler = new InternalPromiseHandler<>(this, executor);
+        mBroken = broken;
+        mBroken.join();
+        mName = name;
+
+        PromiseListener listener = sListener;
+        if (listener != null) {
+            mCreatedAt = System.nanoTime();
+            listener.onCreate(this);
+        }
+    }
+
+    /**
+     * 安装生命周期监听器,为null时卸载。只影响之后发生的事件
+     * @see PromiseMetrics
+     */
+    public static void setListener(PromiseListener listener){
+        sListener = listener;
+    }
+
+    public static PromiseListener getListener(){
+        return sListener;
+    }
+
+    /**
+     * promise构造函数接受一个{@link Action}接口作为参数,在该接口的{@link Action#call(Object)}方法中,又传入
+     * {@link PromiseHandler}接口作为参数。<br/>
+     * PromiseHandler提供resolve方法和reject方法, <br/>
+     * resolve方法的作用是，将promise对象的状态从“未完成”变为“成功”（即从pending变为resolved），
+     * 在异步操作成功时调用，并将异步操作的结果，作为参数传递出去；<br/>
+     * reject方法的作用是，将Promise对象的状态从“未完成”变为“失败”（即从pending变为rejected），
+     * 在异步操作失败时调用，并将异步操作报出的错误，作为参数传递出去。<br/>
+     * promise实例生成以后，可以用then方法分别指定resolved状态和rejected状态的回调函数
+     */
+    public Promise(Action<PromiseHandler<T>> onAction, Executor executor, String name){
+        this(new DefaultBroken(), executor, name);
+        runAction(onAction);
+    }
+
+    private void runAction(Action<PromiseHandler<T>> onAction){
+        try {
+            onAction.call(mPromiseHandler);
+        } catch (Throwable e){
+            e.printStackTrace();
+            //状态未做变化,需要切换状态从pending到rejected,否则把异常抛出
+            if(getState() == STATE_PENDING){
+                mPromiseHandler.reject(e);
+            } else {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * @see #Promise(Action, Executor, String)
+     */
+    public Promise(Action<PromiseHandler<T>> onAction, Executor executor){
+        this(onAction, executor, null);
+    }
+
+    /**
+     * @see #Promise(Action, Executor, String)
+     */
+    public Promise(Action<PromiseHandler<T>> onAction){
+        this(onAction, createDefaultExecutor());
+    }
+
+    private static Executor createDefaultExecutor(){
+        return PromiseExecutors.currentThread();
+    }
+
+    /**
+     * 用于将多个promise实例，包装成一个新的promise实例。<br/>
+     * 新的promise实例的状态由传入参数的promise决定，分成两种情况。<br/>
+     * <ul>
+     *     <li>只有所有参数的promise的状态都变成resolved，新的promise实例的状态才会变成resolved，
+     *     此时所有参数promise的返回值组成一个数组，传递给新的promise实例的回调函数。</li>
+     *     <li>只要所有参数的promise之中有一个被rejected，新的promise实例的状态就变成rejected，
+     *     此时第一个被reject的实例的返回值，会传递给新的promise实例的回调函数</li>
+     * </ul>
+     */
+    @SafeVarargs
+    public static <T> Promise<List<T>> all(Executor executor, String name, final Promise<T>... promises){
+        if(promises == null || promises.length==0) {
+            throw new IllegalArgumentException("parameter promises is null");
+        }
+        return all(executor, name, Arrays.asList(promises));
+    }
+
+    /**
+     * 与{@link #all(Executor, String, Promise[])}相同,参数为集合,返回值按参数顺序排列。<br/>
+     * 结果写入预先分配的数组,由原子计数判断是否全部完成,整个过程不加锁
+     */
+    public static <T> Promise<List<T>> all(Executor executor, String name, Iterable<? extends Promise<T>> promises){
+        final Collection<? extends Promise<T>> items = toCollection(promises);
+        final Promise<List<T>> newPromise = new Promise<>(new DefaultBroken(), executor, name);
+        final Object[] results = new Object[items.size()];
+
+        Countdown<T, List<T>> countdown = new Countdown<T, List<T>>(newPromise, items.size()) {
+            @Override
+            void onResolved(int index, T value) {
+                results[index] = value;
+                if (mRemaining.decrementAndGet() == 0) {
+                    mPromise.mPromiseHandler.tryResolve((List<T>) Arrays.asList(results));
+                }
+            }
+
+            @Override
+            void onRejected(int index, Throwable e) {
+                mPromise.mPromiseHandler.tryReject(e);
+            }
+        };
+        countdown.subscribe(items);
+        return newPromise;
+    }
+
+    /**
+     * @see #all(Executor, String, Iterable)
+     */
+    public static <T> Promise<List<T>> all(Executor executor, Iterable<? extends Promise<T>> promises){
+        return all(executor, null, promises);
+    }
+
+    /**
+     * @see #all(Executor, String, Iterable)
+     */
+    public static <T> Promise<List<T>> all(Iterable<? extends Promise<T>> promises){
+        return all(createDefaultExecutor(), promises);
+    }
+
+    /**
+     * @see #all(Executor, String, Promise[])
+     */
+    @SafeVarargs
+    public static <T> Promise<List<T>> all(Executor executor, final Promise<T>... promises){
+        return all(executor, null, promises);
+    }
+
+    /**
+     * @see #all(Executor, String, Promise[])
+     */
+    @SafeVarargs
+    public static <T> Promise<List<T>> all(final Promise<T>... promises){
+        return all(createDefaultExecutor(), promises);
+    }
+
+    /**
+     * 用于将多个promise实例，包装成一个新的promise实例。<br/>
+     * 新的promise实例的状态由传入参数的promise决定，分成两种情况。<br/>
+     * <ul>
+     *     <li>只要所有参数的promise之中有一个被resolved，新的promise实例的状态就会变成resolved，
+     *     此时第一个被resolved的实例的返回值，传递给新的promise实例的回调函数。</li>
+     *     <li>只要所有参数的promise之中有一个被rejected，新的promise实例的状态就变成rejected，
+     *     此时第一个被reject的实例的返回值，会传递给新的promise实例的回调函数</li>
+     * </ul>
+     */
+    @SafeVarargs
+    public static <T> Promise<T> race(Executor executor, String name, final Promise<T>... promises){
+        if(promises == null || promises.length==0) {
+            throw new IllegalArgumentException("parameter promises is null");
+        }
+
+        final Promise<T> newPromise = new Promise<>(new DefaultBroken(), executor, name);
+
+        Countdown<T, T> countdown = new Countdown<T, T>(newPromise, promises.length) {
+            @Override
+            void onResolved(int index, T value) {
+                mPromise.mPromiseHandler.tryResolve(value);
+            }
+
+            @Override
+            void onRejected(int index, Throwable e) {
+                mPromise.mPromiseHandler.tryReject(e);
+            }
+        };
+        countdown.subscribe(Arrays.asList(promises));
+        return newPromise;
+    }
+
+    /**
+     * @see #race(Executor, String, Promise[])
+     */
+    @SafeVarargs
+    public static <T> Promise<T> race(Executor executor, final Promise<T>... promises){
+        return race(executor, null, promises);
+    }
+
+    /**
+     * @see #race(Executor, String, Promise[])
+     */
+    @SafeVarargs
+    public static <T> Promise<T> race(final Promise<T>... promises){
+        return race(createDefaultExecutor(), promises);
+    }
+
+    /**
+     * 用于将多个promise实例，包装成一个新的promise实例。<br/>
+     * 等所有参数的promise都结束(不论resolved还是rejected)，新的promise实例才变成resolved，
+     * 此时每个参数promise的结果按参数顺序组成一个数组，传递给新的promise实例的回调函数。
+     */
+    public static <T> Promise<List<PromiseResult<T>>> allSettled(Executor executor, String name, Iterable<? extends Promise<T>> promises){
+        final Collection<? extends Promise<T>> items = toCollection(promises);
+        final Promise<List<PromiseResult<T>>> newPromise = new Promise<>(new DefaultBroken(), executor, name);
+        final PromiseResult<T>[] results = new PromiseResult[items.size()];
+
+        Countdown<T, List<PromiseResult<T>>> countdown = new Countdown<T, List<PromiseResult<T>>>(newPromise, items.size()) {
+            @Override
+            void onResolved(int index, T value) {
+                settle(index, PromiseResult.resolved(value));
+            }
+
+            @Override
+            void onRejected(int index, Throwable e) {
+                settle(index, PromiseResult.<T>rejected(e));
+            }
+
+            @Override
+            void onBroken(int index) {
+                settle(index, PromiseResult.<T>rejected(new CancellationException("promise was broken")));
+            }
+
+            private void settle(int index, PromiseResult<T> result) {
+                results[index] = result;
+                if (mRemaining.decrementAndGet() == 0) {
+                    mPromise.mPromiseHandler.tryResolve(Arrays.asList(results));
+                }
+            }
+        };
+        countdown.subscribe(items);
+        return newPromise;
+    }
+
+    /**
+     * @see #allSettled(Executor, String, Iterable)
+     */
+    public static <T> Promise<List<PromiseResult<T>>> allSettled(Executor executor, Iterable<? extends Promise<T>> promises){
+        return allSettled(executor, null, promises);
+    }
+
+    /**
+     * @see #allSettled(Executor, String, Iterable)
+     */
+    public static <T> Promise<List<PromiseResult<T>>> allSettled(Iterable<? extends Promise<T>> promises){
+        return allSettled(createDefaultExecutor(), promises);
+    }
+
+    /**
+     * @see #allSettled(Executor, String, Iterable)
+     */
+    @SafeVarargs
+    public static <T> Promise<List<PromiseResult<T>>> allSettled(Executor executor, String name, final Promise<T>... promises){
+        if(promises == null || promises.length==0) {
+            throw new IllegalArgumentException("parameter promises is null");
+        }
+        return allSettled(executor, name, Arrays.asList(promises));
+    }
+
+    /**
+     * @see #allSettled(Executor, String, Iterable)
+     */
+    @SafeVarargs
+    public static <T> Promise<List<PromiseResult<T>>> allSettled(final Promise<T>... promises){
+        return allSettled(createDefaultExecutor(), null, promises);
+    }
+
+    /**
+     * 用于将多个promise实例，包装成一个新的promise实例。<br/>
+     * <ul>
+     *     <li>只要参数的promise之中有一个被resolved，新的promise实例就变成resolved，
+     *     此时第一个被resolved的实例的返回值，传递给新的promise实例的回调函数，其余未结束的promise被毁约(所在then链上有其他分支的除外)。</li>
+     *     <li>只有所有参数的promise都被rejected，新的promise实例才变成rejected，
+     *     异常为{@link AggregateException}，按参数顺序包含每个promise的异常</li>
+     * </ul>
+     */
+    public static <T> Promise<T> any(Executor executor, String name, Iterable<? extends Promise<T>> promises){
+        final Collection<? extends Promise<T>> items = toCollection(promises);
+        final Promise<T> newPromise = new Promise<>(new DefaultBroken(), executor, name);
+        final Throwable[] errors = new Throwable[items.size()];
+
+        Countdown<T, T> countdown = new Countdown<T, T>(newPromise, items.size()) {
+            @Override
+            void onResolved(int index, T value) {
+                if (mPromise.mPromiseHandler.tryResolve(value)) {
+                    brokePending(items);
+                }
+            }
+
+            @Override
+            void onRejected(int index, Throwable e) {
+                errors[index] = e;
+                if (mRemaining.decrementAndGet() == 0) {
+                    mPromise.mPromiseHandler.tryReject(aggregate("all promises were rejected", errors));
+                }
+            }
+
+            @Override
+            void onBroken(int index) {
+                onRejected(index, new CancellationException("promise was broken"));
+            }
+        };
+        countdown.subscribe(items);
+        return newPromise;
+    }
+
+    /**
+     * @see #any(Executor, String, Iterable)
+     */
+    public static <T> Promise<T> any(Executor executor, Iterable<? extends Promise<T>> promises){
+        return any(executor, null, promises);
+    }
+
+    /**
+     * @see #any(Executor, String, Iterable)
+     */
+    public static <T> Promise<T> any(Iterable<? extends Promise<T>> promises){
+        return any(createDefaultExecutor(), promises);
+    }
+
+    /**
+     * @see #any(Executor, String, Iterable)
+     */
+    @SafeVarargs
+    public static <T> Promise<T> any(Executor executor, String name, final Promise<T>... promises){
+        if(promises == null || promises.length==0) {
+            throw new IllegalArgumentException("parameter promises is null");
+        }
+        return any(executor, name, Arrays.asList(promises));
+    }
+
+    /**
+     * @see #any(Executor, String, Iterable)
+     */
+    @SafeVarargs
+    public static <T> Promise<T> any(final Promise<T>... promises){
+        return any(createDefaultExecutor(), null, promises);
+    }
+
+    /**
+     * 用于将多个promise实例，包装成一个新的promise实例。<br/>
+     * <ul>
+     *     <li>只要参数的promise之中有count个被resolved，新的promise实例就变成resolved，
+     *     此时这count个返回值按完成顺序组成一个数组，传递给新的promise实例的回调函数，其余未结束的promise被毁约(所在then链上有其他分支的除外)。</li>
+     *     <li>失败的个数多到不可能再有count个resolved时，新的promise实例变成rejected，
+     *     异常为{@link AggregateException}，其余未结束的promise被毁约(所在then链上有其他分支的除外)</li>
+     * </ul>
+     */
+    public static <T> Promise<List<T>> some(Executor executor, String name, final int count, Iterable<? extends Promise<T>> promises){
+        final Collection<? extends Promise<T>> items = toCollection(promises);
+        if(count <= 0 || count > items.size()) {
+            throw new IllegalArgumentException(String.format("parameter count must be in [1, %d]: %d", items.size(), count));
+        }
+
+        final Promise<List<T>> newPromise = new Promise<>(new DefaultBroken(), executor, name);
+        final Object[] results = new Object[count];
+        final Throwable[] errors = new Throwable[items.size()];
+        //分配结果槽位的计数,与写入完成的计数分开,保证最后一个写入者看到所有结果
+        final AtomicInteger claimed = new AtomicInteger();
+        final AtomicInteger filled = new AtomicInteger();
+
+        Countdown<T, List<T>> countdown = new Countdown<T, List<T>>(newPromise, items.size() - count + 1) {
+            @Override
+            void onResolved(int index, T value) {
+                int slot = claimed.getAndIncrement();
+                if (slot >= count) return;
+
+                results[slot] = value;
+                if (filled.incrementAndGet() == count
+                        && mPromise.mPromiseHandler.tryResolve((List<T>) Arrays.asList(results))) {
+                    brokePending(items);
+                }
+            }
+
+            @Override
+            void onRejected(int index, Throwable e) {
+                errors[index] = e;
+                if (mRemaining.decrementAndGet() == 0
+                        && mPromise.mPromiseHandler.tryReject(aggregate("too many promises were rejected", errors))) {
+                    brokePending(items);
+                }
+            }
+
+            @Override
+            void onBroken(int index) {
+                onRejected(index, new CancellationException("promise was broken"));
+            }
+        };
+        countdown.subscribe(items);
+        return newPromise;
+    }
+
+    /**
+     * @see #some(Executor, String, int, Iterable)
+     */
+    public static <T> Promise<List<T>> some(Executor executor, int count, Iterable<? extends Promise<T>> promises){
+        return some(executor, null, count, promises);
+    }
+
+    /**
+     * @see #some(Executor, String, int, Iterable)
+     */
+    public static <T> Promise<List<T>> some(int count, Iterable<? extends Promise<T>> promises){
+        return some(createDefaultExecutor(), count, promises);
+    }
+
+    /**
+     * @see #some(Executor, String, int, Iterable)
+     */
+    @SafeVarargs
+    public static <T> Promise<List<T>> some(Executor executor, String name, int count, final Promise<T>... promises){
+        if(promises == null || promises.length==0) {
+            throw new IllegalArgumentException("parameter promises is null");
+        }
+        return some(executor, name, count, Arrays.asList(promises));
+    }
+
+    /**
+     * @see #some(Executor, String, int, Iterable)
+     */
+    @SafeVarargs
+    public static <T> Promise<List<T>> some(int count, final Promise<T>... promises){
+        return some(createDefaultExecutor(), null, count, promises);
+    }
+
+    /**
+     * 对集合中的每一项调用mapper生成promise，同时最多有concurrency个promise在执行，
+     * 有一个结束才启动下一项。所有promise都resolved后，返回值按集合顺序组成一个数组，传递给新的promise实例的回调函数；
+     * 只要有一个被rejected，新的promise实例就变成rejected，并不再启动后续的项。<br/>
+     * 集合只在需要时才迭代，正在执行的promise数量不超过concurrency
+     */
+    public static <T, R> Promise<List<R>> map(Iterable<T> items, Function<T, Promise<R>> mapper,
+                                              int concurrency, Executor executor, String name){
+        if(items == null) {
+            throw new IllegalArgumentException("parameter items is null");
+        }
+        if(mapper == null) {
+            throw new IllegalArgumentException("parameter mapper is null");
+        }
+        if(concurrency <= 0) {
+            throw new IllegalArgumentException("parameter concurrency must be greater than 0: " + concurrency);
+        }
+
+        Promise<List<R>> newPromise = new Promise<>(new DefaultBroken(), executor, name);
+        new MapOperator<>(newPromise, items.iterator(), mapper, concurrency, executor).signal();
+        return newPromise;
+    }
+
+    /**
+     * @see #map(Iterable, Function, int, Executor, String)
+     */
+    public static <T, R> Promise<List<R>> map(Iterable<T> items, Function<T, Promise<R>> mapper,
+                                              int concurrency, Executor executor){
+        return map(items, mapper, concurrency, executor, null);
+    }
+
+    /**
+     * @see #map(Iterable, Function, int, Executor, String)
+     */
+    public static <T, R> Promise<List<R>> map(Iterable<T> items, Function<T, Promise<R>> mapper, int concurrency){
+        return map(items, mapper, concurrency, createDefaultExecutor());
+    }
+
+    /**
+     * 生成一个promise实例,在delay之后变为resolved状态,返回值为value。<br/>
+     * 所有定时共用一个时间轮线程,不会为每次调用创建线程;调用{@link #broke()}会取消尚未到期的定时。<br/>
+     * executor就地执行时(包括没有平台provider时默认的currentThread()),回调转到{@link PromiseExecutors#computation()}上执行,
+     * 不会在时间轮线程上执行
+     */
+    public static <T> Promise<T> timer(final T value, long delay, TimeUnit unit, Executor executor, String name){
+        if (value instanceof Promise) {
+            throw new IllegalArgumentException("参数类型不能是Promise");
+        }
+
+        final Promise<T> promise = new Promise<>(new DefaultBroken(), executor, name);
+        final HashedWheelTimer.Timeout timeout = HashedWheelTimer.shared().newTimeout(new Runnable() {
+            @Override
+            public void run() {
+                if (promise.mBroken.isBroken()) return;
+                promise.mPromiseHandler.resolve(value);
+            }
+        }, delay, unit, executor);
+        promise.mBroken.onBroke(new Runnable() {
+            @Override
+            public void run() {
+                timeout.cancel();
+            }
+        });
+        return promise;
+    }
+
+    /**
+     * @see #timer(Object, long, TimeUnit, Executor, String)
+     */
+    public static <T> Promise<T> timer(final T value, long delay, TimeUnit unit, Executor executor){
+        return timer(value, delay, unit, executor, null);
+    }
+
+    /**
+     * @see #timer(Object, long, TimeUnit, Executor, String)
+     */
+    public static <T> Promise<T> timer(final T value, long delay, TimeUnit unit){
+        return timer(value, delay, unit, createDefaultExecutor());
+    }
+
+    public static <T> Promise<T> delay(final long milliseconds){
+        return delay(milliseconds, createDefaultExecutor());
+    }
+
+    public static <T> Promise<T> delay(final long milliseconds, Executor executor){
+        return timer(null, milliseconds, TimeUnit.MILLISECONDS, executor);
+    }
+
+    /**
+     * 把task提交到service执行,task的返回值作为resolved的值,抛出的异常作为rejected的异常。<br/>
+     * promise被毁约时取消对应的{@link Future},mayInterruptIfRunning为true时会中断正在执行task的线程
+     */
+    public static <T> Promise<T> submit(final Callable<T> task, ExecutorService service, final boolean mayInterruptIfRunning,
+                                        Executor executor, String name){
+        final Promise<T> promise = new Promise<>(new DefaultBroken(), executor, name);
+        final Future<?> future = service.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (promise.mBroken.isBroken()) return;
+
+                T result;
+                try {
+                    result = task.call();
+                } catch (Throwable e) {
+                    //毁约导致的中断不再传递
+                    if (!promise.mBroken.isBroken()) {
+                        promise.mPromiseHandler.reject(e);
+                    }
+                    return;
+                }
+                promise.mPromiseHandler.resolve(result);
+            }
+        });
+        promise.mBroken.onBroke(new Runnable() {
+            @Override
+            public void run() {
+                future.cancel(mayInterruptIfRunning);
+            }
+        });
+        return promise;
+    }
+
+    /**
+     * @see #submit(Callable, ExecutorService, boolean, Executor, String)
+     */
+    public static <T> Promise<T> submit(final Callable<T> task, ExecutorService service, Executor executor){
+        return submit(task, service, true, executor, null);
+    }
+
+    /**
+     * 在{@link PromiseExecutors#virtual()}上执行可能阻塞的task,task的返回值作为resolved的值,
+     * 抛出的异常作为rejected的异常,回调在executor上执行。<br/>
+     * promise被毁约时中断正在执行task的线程
+     */
+    public static <T> Promise<T> supplyAsync(final Callable<T> task, Executor executor, String name){
+        return submit(task, PromiseExecutors.virtualService(), true, executor, name);
+    }
+
+    /**
+     * @see #supplyAsync(Callable, Executor, String)
+     */
+    public static <T> Promise<T> supplyAsync(final Callable<T> task, Executor executor){
+        return supplyAsync(task, executor, null);
+    }
+
+    /**
+     * @see #supplyAsync(Callable, Executor, String)
+     */
+    public static <T> Promise<T> supplyAsync(final Callable<T> task){
+        return supplyAsync(task, createDefaultExecutor());
+    }
+
+    /**
+     * 失败重试:每次尝试调用supplier创建一个新的promise,rejected时按policy等待一段时间后再次尝试,
+     * 直到某次尝试resolved,或者policy不再允许重试时以最后一次的异常rejected。<br/>
+     * 重试前的等待使用共享的时间轮,不占用线程;返回的promise被毁约时取消等待中的重试,并毁约正在进行的尝试
+     */
+    public static <T> Promise<T> retry(Supplier<Promise<T>> supplier, RetryPolicy policy, Executor executor, String name){
+        Promise<T> promise = new Promise<>(new DefaultBroken(), executor, name);
+        new RetryOperator<>(promise, supplier, policy).run();
+        return promise;
+    }
+
+    /**
+     * @see #retry(Supplier, RetryPolicy, Executor, String)
+     */
+    public static <T> Promise<T> retry(Supplier<Promise<T>> supplier, RetryPolicy policy, Executor executor){
+        return retry(supplier, policy, executor, null);
+    }
+
+    /**
+     * @see #retry(Supplier, RetryPolicy, Executor, String)
+     */
+    public static <T> Promise<T> retry(Supplier<Promise<T>> supplier, RetryPolicy policy){
+        return retry(supplier, policy, createDefaultExecutor());
+    }
+
+    /**
+     * 对冲请求:先调用supplier发起一次尝试,hedgeDelay之后还没有结束时再发起一次备份尝试,最多发起maxHedges次备份;
+     * 某次尝试rejected时立即发起下一次备份。<br/>
+     * 第一个resolved的尝试的值作为结果,同时毁约其他未结束的尝试;所有尝试都rejected时以最后一个异常rejected。
+     * 返回的promise被毁约时毁约所有未结束的尝试。多数请求在hedgeDelay内完成时不会增加后端压力,
+     * 只有慢请求才会触发备份,从而降低尾延迟
+     */
+    public static <T> Promise<T> hedge(Supplier<Promise<T>> supplier, long hedgeDelay, TimeUnit unit, int maxHedges,
+                                       Executor executor, String name){
+        Promise<T> promise = new Promise<>(new DefaultBroken(), executor, name);
+        new HedgeOperator<>(promise, supplier, unit.toNanos(hedgeDelay), null, maxHedges).launch();
+        return promise;
+    }
+
+    /**
+     * @see #hedge(Supplier, long, TimeUnit, int, Executor, String)
+     */
+    public static <T> Promise<T> hedge(Supplier<Promise<T>> supplier, long hedgeDelay, TimeUnit unit, int maxHedges,
+                                       Executor executor){
+        return hedge(supplier, hedgeDelay, unit, maxHedges, executor, null);
+    }
+
+    /**
+     * @see #hedge(Supplier, long, TimeUnit, int, Executor, String)
+     */
+    public static <T> Promise<T> hedge(Supplier<Promise<T>> supplier, long hedgeDelay, TimeUnit unit, int maxHedges){
+        return hedge(supplier, hedgeDelay, unit, maxHedges, createDefaultExecutor());
+    }
+
+    /**
+     * 自适应的对冲请求:对冲延迟取tracker估计的耗时百分位(例如p95),获胜尝试的耗时记录到tracker。
+     * 同一类请求应共用一个tracker
+     * @see #hedge(Supplier, long, TimeUnit, int, Executor, String)
+     */
+    public static <T> Promise<T> hedge(Supplier<Promise<T>> supplier, LatencyTracker tracker, int maxHedges,
+                                       Executor executor, String name){
+        Promise<T> promise = new Promise<>(new DefaultBroken(), executor, name);
+        new HedgeOperator<>(promise, supplier, tracker.getEstimate(TimeUnit.NANOSECONDS), tracker, maxHedges).launch();
+        return promise;
+    }
+
+    /**
+     * @see #hedge(Supplier, LatencyTracker, int, Executor, String)
+     */
+    public static <T> Promise<T> hedge(Supplier<Promise<T>> supplier, LatencyTracker tracker, int maxHedges){
+        return hedge(supplier, tracker, maxHedges, createDefaultExecutor(), null);
+    }
+
+    /**
+     * 惰性promise:与{@link #Promise(Action, Executor, String)}相同,但onAction不在构造时执行,
+     * 而是在第一次被订阅(then、thenPromise、all等组合)或{@link #await()}时,在订阅的线程上执行。<br/>
+     * 对惰性promise调用then、thenPromise、timeout得到的promise同样是惰性的,
+     * 因此可以先搭建带分支的promise图,只有真正被使用的分支才会执行;
+     * 链的末端没有被订阅时用{@link #start()}启动
+     */
+    public static <T> Promise<T> lazy(final Action<PromiseHandler<T>> onAction, Executor executor, String name){
+        final Promise<T> promise = new Promise<>(new DefaultBroken(), executor, name);
+        promise.mStarter = new Runnable() {
+            @Override
+            public void run() {
+                promise.runAction(onAction);
+            }
+        };
+        return promise;
+    }
+
+    /**
+     * @see #lazy(Action, Executor, String)
+     */
+    public static <T> Promise<T> lazy(Action<PromiseHandler<T>> onAction, Executor executor){
+        return lazy(onAction, executor, null);
+    }
+
+    /**
+     * @see #lazy(Action, Executor, String)
+     */
+    public static <T> Promise<T> lazy(Action<PromiseHandler<T>> onAction){
+        return lazy(onAction, createDefaultExecutor());
+    }
+
+    /**
+     * 惰性地创建promise:第一次被订阅或等待时才调用factory,返回的promise的结果作为本promise的结果,
+     * factory抛出的异常作为rejected的异常
+     * @see #lazy(Action, Executor, String)
+     */
+    public static <T> Promise<T> defer(final Callable<Promise<T>> factory, Executor executor, String name){
+        return lazy(new Action<PromiseHandler<T>>() {
+            @Override
+            public void call(PromiseHandler<T> promiseHandler) {
+                Promise<T> promise;
+                try {
+                    promise = factory.call();
+                } catch (Exception e) {
+                    promiseHandler.reject(e);
+                    return;
+                }
+                promiseHandler.resolvePromise(promise);
+            }
+        }, executor, name);
+    }
+
+    /**
+     * @see #defer(Callable, Executor, String)
+     */
+    public static <T> Promise<T> defer(Callable<Promise<T>> factory, Executor executor){
+        return defer(factory, executor, null);
+    }
+
+    /**
+     * @see #defer(Callable, Executor, String)
+     */
+    public static <T> Promise<T> defer(Callable<Promise<T>> factory){
+        return defer(factory, createDefaultExecutor());
+    }
+
+    /**
+     * 把一个普通对象转成一个promise对象,状态为resolved
+     */
+    public static <T> Promise<T> resolve(final T a, Executor executor, String name){
+        return new Promise<>(new Action<PromiseHandler<T>>() {
+            @Override
+            public void call(PromiseHandler<T> promiseHandler) {
+                promiseHandler.resolve(a);
+            }
+        }, executor, name);
+    }
+
+    public static <T> Promise<T> resolve(final T a, String name){
+        return resolve(a, createDefaultExecutor(), name);
+    }
+
+    /**
+     * 生成一个空的promise实例, 状态为resolved
+     */
+    public static <T> Promise<T> resolve(Executor executor, String name){
+        return resolve(null, executor, name);
+    }
+
+    /**
+     * @see #resolve(Executor, String)
+     */
+    public static <T> Promise<T> resolve(String name){
+        return resolve(createDefaultExecutor(), name);
+    }
+
+    /**
+     * @see #resolve(Executor, String)
+     */
+    public static <T> Promise<T> resolve(){
+        return resolve(null);
+    }
+
+    /**
+     * 生成一个空的promise实例,状态为rejected
+     */
+    public static <T> Promise<T> reject(Executor executor, String name){
+        return reject("", executor, name);
+    }
+
+    /**
+     * @see #reject(String, Executor, String)
+     */
+    public static <T> Promise<T> reject(final String exception){
+        return reject(exception, createDefaultExecutor(), null);
+    }
+
+    /**
+     * 生成一个promise实例,状态为rejected,异常信息为exception
+     */
+    public static <T> Promise<T> reject(final String exception, Executor executor, String name){
+        return new Promise<>(new Action<PromiseHandler<T>>() {
+            @Override
+            public void call(PromiseHandler<T> promiseHandler) {
+                promiseHandler.reject(new Exception(exception));
+            }
+        }, executor, name);
+    }
+
+    /**
+     * 生成一个promise实例,状态为rejected,异常为e
+     */
+    public static <T> Promise<T> reject(final Throwable e, Executor executor, String name){
+        return new Promise<>(new Action<PromiseHandler<T>>() {
+            @Override
+            public void call(PromiseHandler<T> promiseHandler) {
+                promiseHandler.reject(e);
+            }
+        }, executor, name);
+    }
+
+    /**
+     * 处理状态变化时,把构造函数调用{@link PromiseHandler#resolve(Object)}传入的值,交给参数onResolved回调函数处理,
+     * onResolved回调函数需要返回一个新的promise实例
+     */
+    public <R> Promise<R> thenPromise(final Function<T, Promise<R>> onResolved){
+        return thenPromise(onResolved, null);
+    }
+
+    /**
+     * 处理状态变化时,把构造函数调用{@link PromiseHandler#resolve(Object)}传入的值,交给参数onResolved回调函数处理,
+     * 且把{@link PromiseHandler#reject(Throwable)}传入的值,交给参数onRejected处理。
+     * onResolved回调函数需要返回一个新的promise实例
+     */
+    public <R> Promise<R> thenPromise(final Function<T, Promise<R>> onResolved, final Action<Throwable> onRejected){
+        final Promise<R> promise = new Promise<>(mBroken, mExecutor,
+                (mName == null || mName.length()==0)? null: mName + "-thenPromise");
+        promise.mDepth = mDepth + 1;
+        chain(promise, wrapResolvedPromiseFunction(promise, onResolved), wrapRejectedFunction(promise, onRejected));
+        return promise;
+    }
+
+    /**
+     * 处理状态变化时,把构造函数调用{@link PromiseHandler#resolve(Object)}传入的值,交给参数onResolved回调函数处理,
+     * onResolved回调函数返回一个普通类型对象
+     */
+    public <R> Promise<R> then(final Function<T, R> onResolved){
+        return then(onResolved, null);
+    }
+
+    /**
+     * 处理状态变化时,把构造函数调用{@link PromiseHandler#resolve(Object)}传入的值,交给参数onResolved回调函数处理,
+     * 且把{@link PromiseHandler#reject(Throwable)}传入的值,交给参数onRejected处理。
+     * onResolved回调函数需要返回一个普通类型对象
+     */
+    public <R> Promise<R> then(final Function<T, R> onResolved, final Action<Throwable> onRejected){
+        final Promise<R> promise = new Promise<>(mBroken, mExecutor,
+                (mName == null || mName.length()==0)? null: mName + "-then");
+        promise.mDepth = mDepth + 1;
+        chain(promise, wrapResolvedFunction(promise, onResolved), wrapRejectedFunction(promise, onRejected));
+        return promise;
+    }
+
+    /**
+     * 把then链上的下一个promise挂到当前promise上。当前promise还没有启动(惰性)时,
+     * 推迟到下一个promise被订阅时再注册回调,使整条链保持惰性
+     */
+    private <R> void chain(Promise<R> next, final Function<T, Void> onResolved, final Action<Throwable> onRejected){
+        if (mStarter == null) {
+            mPromiseHandler.addCallback(onResolved, onRejected);
+            return;
+        }
+        next.mStarter = new ChainStarter(this, new Runnable() {
+            @Override
+            public void run() {
+                mPromiseHandler.addCallback(onResolved, onRejected);
+            }
+        });
+    }
+
+    /**
+     * 启动惰性promise,以及它所在的惰性then链的上游;已经启动或不是惰性promise时什么也不做。<br/>
+     * 订阅和等待时会自动启动,then链末端只用来处理结果、不会再被订阅的promise需要手动调用。<br/>
+     * 沿链向上逐个启动,不递归,很长的惰性链也不会栈溢出
+     * @see #lazy(Action, Executor, String)
+     */
+    public Promise<T> start(){
+        Promise<?> promise = this;
+        while (promise != null) {
+            Runnable starter = promise.mStarter;
+            if (starter == null || !STARTER_UPDATER.compareAndSet(promise, starter, null)) break;
+
+            starter.run();
+            //惰性then链上的promise已经在上游注册了回调,继续启动上游
+            promise = starter instanceof ChainStarter ? ((ChainStarter) starter).mUpstream : null;
+        }
+        return this;
+    }
+
+    /**
+     * 惰性链上的启动操作:在上游注册回调,之后由{@link #start()}继续启动上游
+     */
+    private static final class ChainStarter implements Runnable {
+        final Promise<?> mUpstream;
+        final Runnable mRegister;
+
+        ChainStarter(Promise<?> upstream, Runnable register) {
+            mUpstream = upstream;
+            mRegister = register;
+        }
+
+        @Override
+        public void run() {
+            mRegister.run();
+        }
+    }
+
+    private static <T, R> Function<T, Void> wrapResolvedPromiseFunction(final Promise<R> promise, final Function<T, Promise<R>> onResolved){
+        return new Function<T, Void>() {
+            @Override
+            public Void call(T t) {
+                if (promise.getState() != STATE_PENDING) return null;
+                if (promise.mBroken.isBroken()) return null;
+
+                try {
+                    if (onResolved != null) {
+                        Promise<R> result = onResolved.call(t);
+                        promise.mPromiseHandler.resolvePromise(result);
+                    } else {
+                        promise.mPromiseHandler.rawResolve((R) t);
+                    }
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                    //状态未做变化,需要切换状态从pending到rejected,否则把异常抛出
+                    if (promise.getState() == STATE_PENDING) {
+                        promise.mPromiseHandler.rawReject(e);
+                    } else {
+                        throw e;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    private static <T, R> Function<T, Void> wrapResolvedFunction(final Promise<R> promise, final Function<T, R> onResolved){
+        return new Function<T, Void>() {
+            @Override
+            public Void call(T t) {
+                if (promise.getState() != STATE_PENDING) return null;
+                if (promise.mBroken.isBroken()) return null;
+
+                try {
+                    if (onResolved != null) {
+                        R result = onResolved.call(t);
+                        promise.mPromiseHandler.rawResolve(result);
+                    } else {
+                        promise.mPromiseHandler.rawResolve((R) t);
+                    }
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                    //状态未做变化,需要切换状态从pending到rejected,否则把异常抛出
+                    if (promise.getState() == STATE_PENDING) {
+                        promise.mPromiseHandler.rawReject(e);
+                    } else {
+                        throw e;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    private static <R> Action<Throwable> wrapRejectedFunction(final Promise<R> promise, final Action<Throwable> onRejected){
+        return new Action<Throwable>() {
+            @Override
+            public void call(Throwable e) {
+                if (promise.getState() != STATE_PENDING) return;
+                if (promise.mBroken.isBroken()) return;
+
+                if (onRejected != null) {
+                    onRejected.call(e);
+                    //已经处理了异常,则不传到下个promise
+                    //promise.mPromiseHandler.reject(e);
+                } else {
+                    promise.mPromiseHandler.rawReject(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * 异常处理回调
+     */
+    public <R> Promise<R> exception(Action<Throwable> onRejected){
+        return then(null, onRejected);
+    }
+
+    /**
+     * 超时处理:在指定时间内没有结束,新的promise实例变成rejected,异常为{@link TimeoutException},
+     * 同时毁约当前promise,不再继续执行上游的工作。<br/>
+     * 计时使用共享的时间轮,不会为每次调用创建线程。当前promise是惰性的时,返回的promise同样是惰性的,
+     * 启动时才开始计时
+     */
+    public Promise<T> timeout(final long timeout, final TimeUnit unit){
+        final Promise<T> promise = new Promise<>(new DefaultBroken(), mExecutor,
+                (mName == null || mName.length()==0)? null: mName + "-timeout");
+        final AtomicReference<HashedWheelTimer.Timeout> timer = new AtomicReference<>();
+        Runnable register = new Runnable() {
+            @Override
+            public void run() {
+                if (promise.isBroken()) return;
+                timer.set(HashedWheelTimer.shared().newTimeout(new Runnable() {
+                    @Override
+                    public void run() {
+                        Trampoline.dispatch(mExecutor, new Runnable() {
+                            @Override
+                            public void run() {
+                                TimeoutException e = new TimeoutException(String.format("Promise[%s]超时: %d %s",
+                                        mName, timeout, unit));
+                                if (promise.mPromiseHandler.tryReject(e)) {
+                                    broke();
+                                }
+                            }
+                        });
+                    }
+                }, timeout, unit, mExecutor));
+
+                mPromiseHandler.addCallback(new Function<T, Void>() {
+                    @Override
+                    public Void call(T t) {
+                        timer.get().cancel();
+                        promise.mPromiseHandler.tryResolve(t);
+                        return null;
+                    }
+                }, new Action<Throwable>() {
+                    @Override
+                    public void call(Throwable e) {
+                        timer.get().cancel();
+                        promise.mPromiseHandler.tryReject(e);
+                    }
+                });
+            }
+        };
+        if (mStarter == null) {
+            register.run();
+        } else {
+            promise.mStarter = new ChainStarter(this, register);
+        }
+        //毁约双向传递:超时后的promise被毁约时毁约上游,上游被毁约时毁约未结束的超时promise
+        promise.mBroken.onBroke(new Runnable() {
+            @Override
+            public void run() {
+                HashedWheelTimer.Timeout armed = timer.get();
+                if (armed != null) {
+                    armed.cancel();
+                }
+                broke();
+            }
+        });
+        mBroken.onBroke(new Runnable() {
+            @Override
+            public void run() {
+                if (promise.getState() == STATE_PENDING) {
+                    promise.broke();
+                }
+            }
+        });
+        return promise;
+    }
+
+    /**
+     * 阻塞当前线程直到promise结束,返回resolved的值;rejected时抛出{@link ExecutionException},
+     * cause为reject传入的异常。<br/>
+     * 等待通过park/unpark实现,不轮询也不占用对象锁,在虚拟线程上等待时会让出载体线程而不是钉住它。
+     * 在续体中等待时,先就地执行本线程蹦床中排队的续体;
+     * 注意不要在promise的executor所在的线程上等待由其他任务结束的promise,否则回调无法执行
+     */
+    public T await(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!mPromiseHandler.awaitDone(unit.toNanos(timeout), true)) {
+            throw new TimeoutException(String.format("Promise[%s]等待超时: %d %s", mName, timeout, unit));
+        }
+        return mPromiseHandler.getResult();
+    }
+
+    /**
+     * 阻塞当前线程直到promise结束
+     * @see #await(long, TimeUnit)
+     */
+    public T await() throws InterruptedException, ExecutionException {
+        mPromiseHandler.awaitDone(0, false);
+        return mPromiseHandler.getResult();
+    }
+
+    /**
+     * 毁约,也即结束整个promise。<br/>
+     * then链上的promise共享同一个毁约状态;all、race等组合出的promise与参数promise之间双向传递毁约;
+     * 通过{@link PromiseHandler#onBroke(Runnable)}注册的操作会被执行,可以用来取消正在执行的任务
+     */
+    public void broke(){
+        if(!mBroken.isBroken())
+            mBroken.broke();
+    }
+
+    /**
+     * 是否已经毁约
+     */
+    public boolean isBroken(){
+        return mBroken.isBroken();
+    }
+
+    public String getName(){
+        return mName;
+    }
+
+    public void setName(String name){
+        mName = name;
+    }
+
+    private String getStateName(int state){
+        switch (state){
+            case STATE_PENDING:
+                return "Pending";
+            case STATE_RESOLVED:
+                return "Resolved";
+            case STATE_REJECTED:
+                return "Rejected";
+            case STATE_COMPLETING:
+                return "Completing";
+            default:
+                return "";
+        }
+    }
+
+    /**
+     * 抢占状态变化权,只有从pending切换成功的线程才能写入结果,
+     * 随后必须调用{@link #publishState(int)}发布最终状态
+     */
+    void claimState(int state){
+        if(!tryClaimState()){
+            throw new IllegalStateException(String.format("Promise[%s]状态变化:%s=>%s, 状态变化出现异常! " +
+                    "Promise状态只能从Pending到Resolved,或者从Pending到Rejected",
+                    this.mName, getStateName(mState), getStateName(state)));
+        }
+    }
+
+    /**
+     * 尝试抢占状态变化权,已经被其他线程抢占时返回false
+     */
+    boolean tryClaimState(){
+        return STATE_UPDATER.compareAndSet(this, STATE_PENDING, STATE_COMPLETING);
+    }
+
+    /**
+     * 发布最终状态,volatile写保证之前写入的结果对其他线程可见
+     */
+    void publishState(int state){
+        mState = state;
+
+        PromiseListener listener = sListener;
+        if (listener != null) {
+            long createdAt = mCreatedAt;
+            listener.onSettle(this, state == STATE_RESOLVED, createdAt == 0 ? -1 : System.nanoTime() - createdAt);
+        }
+    }
+
+    int getState(){
+        return mState;
+    }
+
+    /**
+     * 结束或毁约时通知,不创建新的promise,供包内的包装器在调用结束后释放资源。
+     * 不会启动惰性promise,它被订阅或等待时才开始执行
+     */
+    void whenSettled(Function<T, Void> onResolved, Action<Throwable> onRejected, Runnable onBroken){
+        mPromiseHandler.addCallback(onResolved, onRejected);
+        mBroken.onBroke(onBroken);
+    }
+
+    private static <T> Collection<? extends Promise<T>> toCollection(Iterable<? extends Promise<T>> promises){
+        if(promises == null) {
+            throw new IllegalArgumentException("parameter promises is null");
+        }
+
+        Collection<? extends Promise<T>> items;
+        if(promises instanceof Collection) {
+            items = (Collection<? extends Promise<T>>) promises;
+        } else {
+            List<Promise<T>> list = new ArrayList<>();
+            for(Promise<T> promise: promises){
+                list.add(promise);
+            }
+            items = list;
+        }
+        if(items.isEmpty()) {
+            throw new IllegalArgumentException("parameter promises is null");
+        }
+        return items;
+    }
+
+    private static AggregateException aggregate(String message, Throwable[] errors){
+        List<Throwable> exceptions = new ArrayList<>(errors.length);
+        for(Throwable e: errors){
+            if(e != null) exceptions.add(e);
+        }
+        return new AggregateException(message, exceptions);
+    }
+
+    /**
+     * 新的promise已经结束,毁约其余未结束的参数promise,避免继续做无用的工作。<br/>
+     * 毁约沿then链共享,参数promise所在的链上还有别的分支时不毁约,以免连带取消其他订阅者的promise
+     */
+    private static <T> void brokePending(Collection<? extends Promise<T>> promises){
+        for(Promise<T> promise: promises){
+            if(promise.getState() == STATE_PENDING && promise.ownsBroken()) {
+                promise.broke();
+            }
+        }
+    }
+
+    /**
+     * 共享毁约状态的promise恰好是从链首到当前promise的一条链,没有分出的其他分支
+     */
+    private boolean ownsBroken(){
+        return mBroken.getMembers() == mDepth + 1;
+    }
+
+    /**
+     * 组合多个promise的计数器,按参数下标接收每个promise的结果,由子类决定何时结束新的promise。<br/>
+     * 每个下标只计数一次:resolved、rejected和毁约都先通过CAS认领该下标,认领失败的结果直接忽略。
+     * 新的promise结束后,后续到达的结果同样忽略
+     */
+    private abstract static class Countdown<T, R> {
+        final Promise<R> mPromise;
+        final AtomicInteger mRemaining;
+        //每个参数promise是否已经计数
+        private AtomicIntegerArray mSettled;
+
+        Countdown(Promise<R> promise, int count) {
+            mPromise = promise;
+            mRemaining = new AtomicInteger(count);
+        }
+
+        /**
+         * 订阅所有参数promise。毁约双向传递:新的promise被毁约时毁约所有未结束的参数promise,
+         * 参数promise在结束之前被毁约时由{@link #onBroken(int)}处理
+         */
+        void subscribe(final Collection<? extends Promise<T>> promises) {
+            mSettled = new AtomicIntegerArray(promises.size());
+            int index = 0;
+            for (Promise<T> promise : promises) {
+                subscribe(promise, index++);
+            }
+            mPromise.mBroken.onBroke(new Runnable() {
+                @Override
+                public void run() {
+                    brokePending(promises);
+                }
+            });
+        }
+
+        private void subscribe(final Promise<T> promise, final int index) {
+            promise.mPromiseHandler.setCallback(new Function<T, Void>() {
+                @Override
+                public Void call(T t) {
+                    if (claim(index)) {
+                        onResolved(index, t);
+                    }
+                    return null;
+                }
+            }, new Action<Throwable>() {
+                @Override
+                public void call(Throwable e) {
+                    if (claim(index)) {
+                        onRejected(index, e);
+                    }
+                }
+            });
+            promise.mBroken.onBroke(new Runnable() {
+                @Override
+                public void run() {
+                    //已经结束的参数promise的结果由回调送达,结束之后的毁约不再计数
+                    if (promise.getState() == STATE_PENDING && claim(index)) {
+                        onBroken(index);
+                    }
+                }
+            });
+        }
+
+        /**
+         * 认领下标index,新的promise已经结束或该下标已经计数时返回false
+         */
+        private boolean claim(int index) {
+            return mPromise.getState() == STATE_PENDING && mSettled.compareAndSet(index, 0, 1);
+        }
+
+        /**
+         * 参数promise被毁约,它不会再结束。默认毁约新的promise
+         */
+        void onBroken(int index) {
+            mPromise.broke();
+        }
+
+        abstract void onResolved(int index, T value);
+
+        abstract void onRejected(int index, Throwable e);
+    }
+
+    /**
+     * {@link #retry(Supplier, RetryPolicy, Executor, String)}的实现。<br/>
+     * 每次执行run发起一次尝试,失败后通过时间轮定时再次执行run
+     */
+    private static final class RetryOperator<T> implements Runnable {
+        private final Promise<T> mPromise;
+        private final Supplier<Promise<T>> mSupplier;
+        private final RetryPolicy mPolicy;
+        private final long mStartTime = System.nanoTime();
+        //已经发起的尝试次数,同一时刻只有一次尝试,不需要同步
+        private int mAttempts;
+        private volatile Promise<T> mCurrent;
+        private volatile HashedWheelTimer.Timeout mTimeout;
+
+        RetryOperator(Promise<T> promise, Supplier<Promise<T>> supplier, RetryPolicy policy) {
+            mPromise = promise;
+            mSupplier = supplier;
+            mPolicy = policy;
+            promise.mBroken.onBroke(new Runnable() {
+                @Override
+                public void run() {
+                    HashedWheelTimer.Timeout timeout = mTimeout;
+                    if (timeout != null) timeout.cancel();
+                    Promise<T> current = mCurrent;
+                    if (current != null) current.broke();
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            if (mPromise.mBroken.isBroken()) return;
+
+            mAttempts++;
+            Promise<T> attempt;
+            try {
+                attempt = mSupplier.call();
+                if (attempt == null) throw new NullPointerException("supplier返回了null");
+            } catch (Throwable e) {
+                onFailure(e);
+                return;
+            }
+
+            mCurrent = attempt;
+            //订阅之前已经毁约,onBroke的回调看不到这次尝试
+            if (mPromise.mBroken.isBroken()) {
+                attempt.broke();
+                return;
+            }
+            attempt.mPromiseHandler.setCallback(new Function<T, Void>() {
+                @Override
+                public Void call(T t) {
+                    mPromise.mPromiseHandler.tryResolve(t);
+                    return null;
+                }
+            }, new Action<Throwable>() {
+                @Override
+                public void call(Throwable e) {
+                    onFailure(e);
+                }
+            });
+        }
+
+        private void onFailure(Throwable e) {
+            if (mPromise.mBroken.isBroken()) return;
+
+            long delay = mPolicy.nextDelayNanos(mAttempts);
+            if (!mPolicy.shouldRetry(mAttempts, e)
+                    || System.nanoTime() - mStartTime + delay > mPolicy.getMaxElapsedNanos()) {
+                mPromise.mPromiseHandler.tryReject(e);
+                return;
+            }
+
+            mTimeout = HashedWheelTimer.shared().newTimeout(new Runnable() {
+                @Override
+                public void run() {
+                    Trampoline.dispatch(mPromise.mExecutor, RetryOperator.this);
+                }
+            }, delay, TimeUnit.NANOSECONDS, mPromise.mExecutor);
+            //等待期间被毁约,onBroke的回调可能没有看到新的定时
+            if (mPromise.mBroken.isBroken()) {
+                mTimeout.cancel();
+            }
+        }
+    }
+
+    /**
+     * {@link #hedge(Supplier, long, TimeUnit, int, Executor, String)}的实现。<br/>
+     * 发起尝试和计数在对象锁内进行,只在发起尝试和尝试结束时加锁,调用supplier和订阅在锁外
+     */
+    private static final class HedgeOperator<T> {
+        private final Promise<T> mPromise;
+        private final Supplier<Promise<T>> mSupplier;
+        private final long mDelayNanos;
+        private final LatencyTracker mTracker;
+        private final int mMaxAttempts;
+        private final List<Promise<T>> mAttempts = new ArrayList<>();
+        private int mLaunched;
+        private int mFailed;
+        private HashedWheelTimer.Timeout mTimeout;
+
+        HedgeOperator(Promise<T> promise, Supplier<Promise<T>> supplier, long delayNanos, LatencyTracker tracker, int maxHedges) {
+            if (maxHedges < 0) throw new IllegalArgumentException("maxHedges: " + maxHedges);
+            mPromise = promise;
+            mSupplier = supplier;
+            mDelayNanos = delayNanos;
+            mTracker = tracker;
+            mMaxAttempts = maxHedges + 1;
+            promise.mBroken.onBroke(new Runnable() {
+                @Override
+                public void run() {
+                    brokeAttempts(null);
+                }
+            });
+        }
+
+        void launch() {
+            synchronized (this) {
+                if (isFinished() || mLaunched >= mMaxAttempts) return;
+                mLaunched++;
+                if (mTimeout != null) mTimeout.cancel();
+                if (mLaunched < mMaxAttempts) {
+                    mTimeout = HashedWheelTimer.shared().newTimeout(new Runnable() {
+                        @Override
+                        public void run() {
+                            Trampoline.dispatch(mPromise.mExecutor, new Runnable() {
+                                @Override
+                                public void run() {
+                                    launch();
+                                }
+                            });
+                        }
+                    }, mDelayNanos, TimeUnit.NANOSECONDS, mPromise.mExecutor);
+                }
+            }
+
+            final long launchedAt = System.nanoTime();
+            final Promise<T> attempt;
+            try {
+                attempt = mSupplier.call();
+                if (attempt == null) throw new NullPointerException("supplier返回了null");
+            } catch (Throwable e) {
+                onFailure(e);
+                return;
+            }
+
+            synchronized (this) {
+                mAttempts.add(attempt);
+            }
+            //已经结束或毁约,brokeAttempts可能没有看到这次尝试
+            if (isFinished()) {
+                attempt.broke();
+                return;
+            }
+            attempt.mPromiseHandler.setCallback(new Function<T, Void>() {
+                @Override
+                public Void call(T t) {
+                    if (mPromise.mPromiseHandler.tryResolve(t)) {
+                        if (mTracker != null) {
+                            mTracker.record(System.nanoTime() - launchedAt, TimeUnit.NANOSECONDS);
+                        }
+                        brokeAttempts(attempt);
+                    }
+                    return null;
+                }
+            }, new Action<Throwable>() {
+                @Override
+                public void call(Throwable e) {
+                    onFailure(e);
+                }
+            });
+        }
+
+        private boolean isFinished() {
+            return mPromise.getState() != STATE_PENDING || mPromise.mBroken.isBroken();
+        }
+
+        private void onFailure(Throwable e) {
+            boolean launchNext = false;
+            boolean reject = false;
+            synchronized (this) {
+                mFailed++;
+                if (mLaunched < mMaxAttempts) {
+                    launchNext = true;
+                } else {
+                    reject = mFailed == mLaunched;
+                }
+            }
+            if (launchNext) {
+                launch();
+            } else if (reject) {
+                mPromise.mPromiseHandler.tryReject(e);
+            }
+        }
+
+        /**
+         * 取消下一次备份,毁约winner以外所有未结束的尝试
+         */
+        private void brokeAttempts(Promise<T> winner) {
+            List<Promise<T>> attempts;
+            synchronized (this) {
+                if (mTimeout != null) mTimeout.cancel();
+                attempts = new ArrayList<>(mAttempts);
+            }
+            for (Promise<T> attempt : attempts) {
+                if (attempt != winner && attempt.getState() == STATE_PENDING) {
+                    attempt.broke();
+                }
+            }
+        }
+    }
+
+    /**
+     * {@link #map(Iterable, Function, int, Executor, String)}的实现。<br/>
+     * 迭代集合和写入结果都在drain中进行,由mWip保证同一时刻只有一个线程在drain,
+     * 结束的项先放入无锁队列,再由drain按下标写入结果
+     */
+    private static final class MapOperator<T, R> implements Runnable {
+        private final Promise<List<R>> mPromise;
+        private final Iterator<T> mIterator;
+        private final Function<T, Promise<R>> mMapper;
+        private final int mConcurrency;
+        private final Executor mExecutor;
+        //drain的重入计数
+        private final AtomicInteger mWip = new AtomicInteger();
+        //还可以启动的项数
+        private final AtomicInteger mPermits;
+        //已结束等待写入结果的项
+        private final Queue<Item<R>> mCompleted = new ConcurrentLinkedQueue<>();
+        //以下字段只在drain中访问
+        private final List<R> mResults = new ArrayList<>();
+        private boolean mExhausted;
+
+        MapOperator(Promise<List<R>> promise, Iterator<T> iterator, Function<T, Promise<R>> mapper,
+                    int concurrency, Executor executor) {
+            mPromise = promise;
+            mIterator = iterator;
+            mMapper = mapper;
+            mConcurrency = concurrency;
+            mExecutor = executor;
+            mPermits = new AtomicInteger(concurrency);
+        }
+
+        void signal() {
+            if (mWip.getAndIncrement() == 0) {
+                Trampoline.dispatch(mExecutor, this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                drain();
+                missed = mWip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() {
+            if (mPromise.getState() != STATE_PENDING || mPromise.mBroken.isBroken()) return;
+
+            Item<R> item;
+            while ((item = mCompleted.poll()) != null) {
+                mResults.set(item.mIndex, item.mValue);
+            }
+
+            try {
+                while (!mExhausted && mPermits.get() > 0) {
+                    if (!mIterator.hasNext()) {
+                        mExhausted = true;
+                        break;
+                    }
+                    T value = mIterator.next();
+                    mPermits.decrementAndGet();
+                    mResults.add(null);
+                    launch(mResults.size() - 1, value);
+                    if (mPromise.getState() != STATE_PENDING) return;
+                }
+            } catch (Throwable e) {
+                e.printStackTrace();
+                mPromise.mPromiseHandler.tryReject(e);
+                return;
+            }
+
+            if (mExhausted && mPermits.get() == mConcurrency && mCompleted.isEmpty()) {
+                mPromise.mPromiseHandler.tryResolve(mResults);
+            }
+        }
+
+        private void launch(int index, T value) {
+            final Item<R> item = new Item<>(index);
+            Promise<R> promise = mMapper.call(value);
+            if (promise == null) {
+                complete(item, null);
+                return;
+            }
+
+            promise.mPromiseHandler.setCallback(new Function<R, Void>() {
+                @Override
+                public Void call(R r) {
+                    complete(item, r);
+                    return null;
+                }
+            }, new Action<Throwable>() {
+                @Override
+                public void call(Throwable e) {
+                    mPromise.mPromiseHandler.tryReject(e);
+                }
+            });
+        }
+
+        private void complete(Item<R> item, R value) {
+            item.mValue = value;
+            mCompleted.add(item);
+            mPermits.incrementAndGet();
+            signal();
+        }
+
+        private static final class Item<R> {
+            final int mIndex;
+            R mValue;
+
+            Item(int index) {
+                mIndex = index;
+            }
+        }
+    }
+
+    private interface Broken{
+        boolean isBroken();
+        void broke();
+
+        /**
+         * 又有一个promise共享该毁约状态
+         */
+        void join();
+
+        /**
+         * 共享该毁约状态的promise数
+         */
+        int getMembers();
+
+        /**
+         * 注册毁约时执行的操作,已经毁约则立即执行
+         */
+        void onBroke(Runnable action);
+    }
+
+    private static class DefaultBroken implements Broken{
+        private static final AtomicReferenceFieldUpdater<DefaultBroken, Hook> HOOKS_UPDATER =
+                AtomicReferenceFieldUpdater.newUpdater(DefaultBroken.class, Hook.class, "mHooks");
+        //已毁约标记,毁约后压入该标记,之后注册的操作直接执行
+        private static final Hook BROKEN = new Hook(null);
+
+        private static final AtomicIntegerFieldUpdater<DefaultBroken> MEMBERS_UPDATER =
+                AtomicIntegerFieldUpdater.newUpdater(DefaultBroken.class, "mMembers");
+
+        //毁约时要执行的操作,无锁压栈
+        private volatile Hook mHooks;
+        private volatile int mMembers;
+
+        @Override
+        public void join() {
+            MEMBERS_UPDATER.incrementAndGet(this);
+        }
+
+        @Override
+        public int getMembers() {
+            return mMembers;
+        }
+
+        @Override
+        public boolean isBroken() {
+            return mHooks == BROKEN;
+        }
+
+        @Override
+        public void broke() {
+            Hook hook = HOOKS_UPDATER.getAndSet(this, BROKEN);
+            while (hook != null && hook != BROKEN) {
+                try {
+                    hook.mAction.run();
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                }
+                hook = hook.mNext;
+            }
+        }
+
+        @Override
+        public void onBroke(Runnable action) {
+            Hook hook = new Hook(action);
+            Hook head;
+            do {
+                head = mHooks;
+                if (head == BROKEN) {
+                    action.run();
+                    return;
+                }
+                hook.mNext = head;
+            } while (!HOOKS_UPDATER.compareAndSet(this, head, hook));
+        }
+
+        private static final class Hook {
+            final Runnable mAction;
+            Hook mNext;
+
+            Hook(Runnable action) {
+                mAction = action;
+            }
+        }
+    }
+
+    private static class InternalPromiseHandler<T> implements PromiseHandler<T> {
+        private static final AtomicReferenceFieldUpdater<InternalPromiseHandler, Callback> CALLBACKS_UPDATER =
+                AtomicReferenceFieldUpdater.newUpdater(InternalPromiseHandler.class, Callback.class, "mCallbacks");
+        //回调栈封闭标记,状态发布后压入该标记,之后注册的回调直接执行
+        private static final Callback<?> CLOSED = new Callback<>(null, null, null);
+
+        private Promise<T> mPromise;
+        //回调栈(Treiber栈),无锁压入,状态发布后一次性取走
+        private volatile Callback<T> mCallbacks;
+        private T mValue;
+        private Throwable mThrowable;
+        private Executor mExecutor;
+
+        public InternalPromiseHandler(Promise<T> promise, Executor executor) {
+            mPromise = promise;
+            mExecutor = executor;
+        }
+
+        @Override
+        public void resolve(final T t) {
+            if (t instanceof Promise) {
+                throw new IllegalArgumentException("参数类型不能是Promise, 请使用方法resolvePromise()");
+            }
+
+            Trampoline.dispatch(mExecutor, new Runnable() {
+                @Override
+                public void run() {
+                    rawResolve(t);
+                }
+            });
+        }
+
+        @Override
+        public void resolvePromise(Promise<T> promise) {
+            promise.then(new Function<T, Void>() {
+                @Override
+                public Void call(T t) {
+                    if (t instanceof Promise) {
+                        resolvePromise((Promise) t);
+                    } else {
+                        resolve(t);
+                    }
+                    return null;
+                }
+            }).exception(new Action<Throwable>() {
+                @Override
+                public void call(Throwable throwable) {
+                    reject(throwable);
+                }
+            }).start();
+        }
+
+        @Override
+        public void onBroke(Runnable action) {
+            mPromise.mBroken.onBroke(action);
+        }
+
+        @Override
+        public boolean isBroken() {
+            return mPromise.mBroken.isBroken();
+        }
+
+        @Override
+        public void reject(final Throwable e) {
+            Trampoline.dispatch(mExecutor, new Runnable() {
+                @Override
+                public void run() {
+                    rawReject(e);
+                }
+            });
+        }
+
+        public void rawResolve(final T t){
+            assert mPromise != null;
+
+            mPromise.claimState(STATE_RESOLVED);
+            mValue = t;
+            mPromise.publishState(STATE_RESOLVED);
+            doCallback();
+        }
+
+        public void rawReject(final Throwable e){
+            assert mPromise != null;
+
+            mPromise.claimState(STATE_REJECTED);
+            mThrowable = e;
+            mPromise.publishState(STATE_REJECTED);
+            doCallback();
+        }
+
+        /**
+         * 与{@link #rawResolve(Object)}相同,但已经完成时不抛异常,返回false
+         */
+        public boolean tryResolve(final T t){
+            if (!mPromise.tryClaimState()) return false;
+
+            mValue = t;
+            mPromise.publishState(STATE_RESOLVED);
+            doCallback();
+            return true;
+        }
+
+        /**
+         * 与{@link #rawReject(Throwable)}相同,但已经完成时不抛异常,返回false
+         */
+        public boolean tryReject(final Throwable e){
+            if (!mPromise.tryClaimState()) return false;
+
+            mThrowable = e;
+            mPromise.publishState(STATE_REJECTED);
+            doCallback();
+            return true;
+        }
+
+        /**
+         * 等待状态发布,timed为false时一直等待。超时返回false
+         */
+        boolean awaitDone(long nanos, boolean timed) throws InterruptedException {
+            mPromise.start();
+            //在续体中等待时,结果可能排在本线程蹦床的队列里,先就地执行
+            Trampoline.drain();
+            if (isDone()) return true;
+
+            final Thread waiter = Thread.currentThread();
+            Function<T, Void> onResolved = new Function<T, Void>() {
+                @Override
+                public Void call(T t) {
+                    LockSupport.unpark(waiter);
+                    return null;
+                }
+            };
+            Action<Throwable> onRejected = new Action<Throwable>() {
+                @Override
+                public void call(Throwable e) {
+                    LockSupport.unpark(waiter);
+                }
+            };
+            //直接压入回调栈,唤醒在完成promise的线程上执行,不经过executor;
+            //压栈失败说明已经完成。超时后留在栈里的回调只会多做一次无害的unpark
+            if (!tryPushCallback(new Callback<>(this, onResolved, onRejected))) return true;
+
+            long deadline = timed ? System.nanoTime() + nanos : 0;
+            while (!isDone()) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                if (timed) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) return false;
+                    LockSupport.parkNanos(this, remaining);
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+            return true;
+        }
+
+        private boolean isDone() {
+            int state = mPromise.getState();
+            return state == STATE_RESOLVED || state == STATE_REJECTED;
+        }
+
+        /**
+         * 已完成时取得结果,rejected时抛出{@link ExecutionException}
+         */
+        T getResult() throws ExecutionException {
+            if (mPromise.getState() == STATE_REJECTED) {
+                throw new ExecutionException(mThrowable);
+            }
+            return mValue;
+        }
+
+        /**
+         * 注册回调并启动惰性promise
+         * @see #addCallback(Function, Action)
+         */
+        public void setCallback(final Function<T, Void> onResolved, final Action<Throwable> onRejected) {
+            addCallback(onResolved, onRejected);
+            mPromise.start();
+        }
+
+        /**
+         * 注册回调,不启动惰性promise。未完成时直接无锁压栈,不经过executor;已完成时派发到executor执行,
+         * 当前线程已在该executor上则经由蹦床就地执行
+         */
+        void addCallback(final Function<T, Void> onResolved, final Action<Throwable> onRejected) {
+            Callback<T> callback = new Callback<>(this, onResolved, onRejected);
+            if (!tryPushCallback(callback)) {
+                callback.onEnqueue();
+                Trampoline.dispatch(mExecutor, callback);
+            }
+        }
+
+        private boolean tryPushCallback(Callback<T> callback) {
+            Callback<T> head;
+            do {
+                head = mCallbacks;
+                if (head == CLOSED) {
+                    return false;
+                }
+                callback.mNext = head;
+            } while (!CALLBACKS_UPDATER.compareAndSet(this, head, callback));
+            return true;
+        }
+
+        private void doCallback() {
+            //封闭回调栈,取走所有已注册的回调,按注册顺序交给蹦床执行,避免长链递归
+            Callback<T> head = CALLBACKS_UPDATER.getAndSet(this, CLOSED);
+            Callback<T> reversed = null;
+            while (head != null) {
+                Callback<T> next = head.mNext;
+                head.mNext = reversed;
+                reversed = head;
+                head = next;
+            }
+            while (reversed != null) {
+                Callback<T> next = reversed.mNext;
+                reversed.mNext = null;
+                reversed.onEnqueue();
+                Trampoline.execute(reversed);
+                reversed = next;
+            }
+        }
+
+        private static final class Callback<T> implements Runnable {
+            final InternalPromiseHandler<T> mHandler;
+            final Function<T, Void> mOnResolved;
+            final Action<Throwable> mOnRejected;
+
+            Callback<T> mNext;
+            //进入待执行状态的时间,只在安装了监听器时记录
+            long mEnqueuedAt;
+
+            Callback(InternalPromiseHandler<T> handler, Function<T, Void> onResolved, Action<Throwable> onRejected) {
+                mHandler = handler;
+                mOnResolved = onResolved;
+                mOnRejected = onRejected;
+            }
+
+            void onEnqueue() {
+                PromiseListener listener = sListener;
+                if (listener != null) {
+                    mEnqueuedAt = System.nanoTime();
+                    listener.onEnqueue(mHandler.mPromise);
+                }
+            }
+
+            @Override
+            public void run() {
+                PromiseListener listener = sListener;
+                if (listener == null) {
+                    invoke();
+                    return;
+                }
+
+                long start = System.nanoTime();
+                long enqueuedAt = mEnqueuedAt;
+                listener.onStart(mHandler.mPromise, enqueuedAt == 0 ? -1 : start - enqueuedAt);
+                try {
+                    invoke();
+                } finally {
+                    listener.onEnd(mHandler.mPromise, System.nanoTime() - start);
+                }
+            }
+
+            private void invoke() {
+                int state = mHandler.mPromise.getState();
+                if (state == STATE_RESOLVED) {
+                    if (mOnResolved != null) {
+                        mOnResolved.call(mHandler.mValue);
+                    }
+                } else if (state == STATE_REJECTED) {
+                    if (mOnRejected != null) {
+                        mOnRejected.call(mHandler.mThrowable);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.hesc.promise;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>把单个key的加载合并成批量加载(类似DataLoader)。</p>
+ * <p>{@link #load(Object)}把key放入当前批次,批次中的key达到maxBatchSize或第一个key等待了maxWait之后,
+ * 用一次batchLoader调用加载整批key,再把结果分发给每个调用者。同一批次中重复的key只加载一次。</p>
+ * <p>batchLoader返回的map中缺少的key以{@link NoSuchElementException}拒绝;
+ * batchLoader抛出异常或返回的promise被拒绝时,整批调用者都被拒绝。</p>
+ */
+public final class PromiseBatcher<K, V> {
+
+    private final Function<List<K>, Promise<Map<K, V>>> mBatchLoader;
+    private final int mMaxBatchSize;
+    private final long mMaxWaitNanos;
+    private final Executor mExecutor;
+
+    //正在收集的批次,由this加锁保护
+    private Batch mCurrent;
+
+    /**
+     * @param batchLoader 批量加载一组key,返回key到值的map
+     * @param maxBatchSize 一批最多包含的不同key的数量
+     * @param maxWait 批次中第一个key最多等待多久,不大于0时在executor的下一个任务中发出
+     * @param executor load返回的promise的回调以及batchLoader在该executor上执行
+     */
+    public PromiseBatcher(Function<List<K>, Promise<Map<K, V>>> batchLoader, int maxBatchSize,
+                          long maxWait, TimeUnit unit, Executor executor) {
+        if (batchLoader == null || executor == null) throw new NullPointerException();
+        if (maxBatchSize <= 0) throw new IllegalArgumentException("maxBatchSize: " + maxBatchSize);
+
+        mBatchLoader = batchLoader;
+        mMaxBatchSize = maxBatchSize;
+        mMaxWaitNanos = unit.toNanos(maxWait);
+        mExecutor = executor;
+    }
+
+    /**
+     * 加载key对应的值,返回的promise在所在批次加载完成后结束
+     */
+    public Promise<V> load(K key) {
+        HandlerHolder holder = new HandlerHolder();
+        Promise<V> promise = new Promise<>(holder, mExecutor);
+
+        Batch created = null;
+        Batch full = null;
+        synchronized (this) {
+            Batch batch = mCurrent;
+            if (batch == null) {
+                batch = created = mCurrent = new Batch();
+            }
+            batch.add(key, holder.mHandler);
+            if (batch.size() >= mMaxBatchSize) {
+                mCurrent = null;
+                full = batch;
+            }
+        }
+
+        //批次已满,立即发出,不再等待
+        if (full != null) {
+            full.cancelTimer();
+            dispatch(full);
+        } else if (created != null) {
+            //key加入之后才在锁外安排发出,executor就地执行时也不会发出空批次
+            schedule(created);
+        }
+        return promise;
+    }
+
+    /**
+     * 立即发出当前正在收集的批次
+     */
+    public void flush() {
+        Batch batch;
+        synchronized (this) {
+            batch = mCurrent;
+            mCurrent = null;
+        }
+        if (batch != null) {
+            batch.cancelTimer();
+            dispatch(batch);
+        }
+    }
+
+    private void schedule(final Batch batch) {
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (PromiseBatcher.this) {
+                    //已经因为批次已满或flush发出
+                    if (mCurrent != batch) return;
+                    mCurrent = null;
+                }
+                dispatch(batch);
+            }
+        };
+        if (mMaxWaitNanos <= 0) {
+            mExecutor.execute(task);
+        } else {
+            batch.mTimeout = HashedWheelTimer.shared().newTimeout(task, mMaxWaitNanos, TimeUnit.NANOSECONDS, mExecutor);
+        }
+    }
+
+    private void dispatch(final Batch batch) {
+        Trampoline.dispatch(mExecutor, new Runnable() {
+            @Override
+            public void run() {
+                batch.load();
+            }
+        });
+    }
+
+    /**
+     * 取得新建promise的PromiseHandler
+     */
+    private final class HandlerHolder implements Action<PromiseHandler<V>> {
+        PromiseHandler<V> mHandler;
+
+        @Override
+        public void call(PromiseHandler<V> promiseHandler) {
+            mHandler = promiseHandler;
+        }
+    }
+
+    private final class Batch {
+        //key到等待它的调用者,保持加入顺序
+        private final Map<K, List<PromiseHandler<V>>> mHandlers = new LinkedHashMap<>();
+        private volatile HashedWheelTimer.Timeout mTimeout;
+
+        void add(K key, PromiseHandler<V> handler) {
+            List<PromiseHandler<V>> handlers = mHandlers.get(key);
+            if (handlers == null) {
+                handlers = new ArrayList<>(1);
+                mHandlers.put(key, handlers);
+            }
+            handlers.add(handler);
+        }
+
+        int size() {
+            return mHandlers.size();
+        }
+
+        void cancelTimer() {
+            HashedWheelTimer.Timeout timeout = mTimeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+
+        void load() {
+            Promise<Map<K, V>> result;
+            try {
+                result = mBatchLoader.call(new ArrayList<>(mHandlers.keySet()));
+                if (result == null) throw new NullPointerException("batchLoader返回了null");
+            } catch (Throwable e) {
+                rejectAll(e);
+                return;
+            }
+
+            //batchLoader可能返回lazy promise,then不会启动它
+            result.start().then(new Function<Map<K, V>, Void>() {
+                @Override
+                public Void call(Map<K, V> values) {
+                    for (Map.Entry<K, List<PromiseHandler<V>>> entry : mHandlers.entrySet()) {
+                        K key = entry.getKey();
+                        if (values != null && values.containsKey(key)) {
+                            V value = values.get(key);
+                            for (PromiseHandler<V> handler : entry.getValue()) {
+                                handler.resolve(value);
+                            }
+                        } else {
+                            NoSuchElementException e = new NoSuchElementException("批量加载没有返回key: " + key);
+                            for (PromiseHandler<V> handler : entry.getValue()) {
+                                handler.reject(e);
+                            }
+                        }
+                    }
+                    return null;
+                }
+            }, new Action<Throwable>() {
+                @Override
+                public void call(Throwable throwable) {
+                    rejectAll(throwable);
+                }
+            });
+        }
+
+        private void rejectAll(Throwable e) {
+            for (List<PromiseHandler<V>> handlers : mHandlers.values()) {
+                for (PromiseHandler<V> handler : handlers) {
+                    handler.reject(e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.hesc.promise;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>舱壁隔离:限制同一个依赖同时进行中的调用数,超出的调用进入有界队列等待,
+ * 队列已满时直接以{@link RejectedExecutionException}拒绝,依赖变慢时不会无限堆积待处理的工作。</p>
+ * <p>计数和队列都是无锁的;调用结束(resolved、rejected或毁约)时归还名额并启动排队的调用。
+ * 排队中的调用被毁约时移出队列,不再执行,也不再占用排队名额。</p>
+ */
+public final class PromiseBulkhead {
+    private final int mMaxConcurrent;
+    private final int mMaxQueue;
+    private final AtomicInteger mInFlight = new AtomicInteger();
+    private final AtomicInteger mQueued = new AtomicInteger();
+    private final Queue<Runnable> mQueue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param maxConcurrent 同时进行中的调用数上限
+     * @param maxQueue 排队等待的调用数上限
+     */
+    public PromiseBulkhead(int maxConcurrent, int maxQueue) {
+        if (maxConcurrent <= 0) throw new IllegalArgumentException("maxConcurrent: " + maxConcurrent);
+        if (maxQueue < 0) throw new IllegalArgumentException("maxQueue: " + maxQueue);
+        mMaxConcurrent = maxConcurrent;
+        mMaxQueue = maxQueue;
+    }
+
+    /**
+     * 进行中的调用数
+     */
+    public int getInFlight() {
+        return mInFlight.get();
+    }
+
+    /**
+     * 排队等待的调用数
+     */
+    public int getQueued() {
+        return mQueued.get();
+    }
+
+    /**
+     * 包装function:有空闲名额时直接调用,否则排队,队列已满时返回的promise直接rejected
+     * @param executor 排队或拒绝时返回的promise的回调在该executor上执行
+     */
+    public <T, R> Function<T, Promise<R>> wrap(final Function<T, Promise<R>> function, final Executor executor) {
+        return new Function<T, Promise<R>>() {
+            @Override
+            public Promise<R> call(T t) {
+                return execute(function, t, executor);
+            }
+        };
+    }
+
+    /**
+     * @see #wrap(Function, Executor)
+     */
+    public <T, R> Function<T, Promise<R>> wrap(Function<T, Promise<R>> function) {
+        return wrap(function, PromiseExecutors.currentThread());
+    }
+
+    private <T, R> Promise<R> execute(final Function<T, Promise<R>> function, final T t, Executor executor) {
+        if (tryAcquire()) {
+            return invoke(function, t);
+        }
+
+        if (mQueued.incrementAndGet() > mMaxQueue) {
+            mQueued.decrementAndGet();
+            return Promise.reject(new RejectedExecutionException("舱壁已满"), executor, null);
+        }
+
+        final HandlerHolder<R> holder = new HandlerHolder<>();
+        final Promise<R> promise = new Promise<>(holder, executor);
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                //出队和毁约同时发生时,毁约的操作没能把它移出队列,不再调用
+                if (promise.isBroken()) {
+                    release();
+                    return;
+                }
+                Promise<R> result;
+                try {
+                    result = invoke(function, t);
+                } catch (Throwable e) {
+                    holder.mHandler.reject(e);
+                    return;
+                }
+                holder.mHandler.resolvePromise(result);
+            }
+        };
+        mQueue.offer(task);
+        //排队期间毁约时移出队列,归还排队名额;已经被取出时由出队的一方计数
+        holder.mHandler.onBroke(new Runnable() {
+            @Override
+            public void run() {
+                if (mQueue.remove(task)) {
+                    mQueued.decrementAndGet();
+                }
+            }
+        });
+        drain();
+        return promise;
+    }
+
+    /**
+     * 已经取得名额后调用function,结束时归还名额
+     */
+    private <T, R> Promise<R> invoke(Function<T, Promise<R>> function, T t) {
+        Promise<R> promise;
+        try {
+            promise = function.call(t);
+            if (promise == null) throw new NullPointerException("function返回了null");
+        } catch (RuntimeException e) {
+            release();
+            throw e;
+        }
+
+        final AtomicBoolean released = new AtomicBoolean();
+        final Runnable onDone = new Runnable() {
+            @Override
+            public void run() {
+                if (released.compareAndSet(false, true)) {
+                    release();
+                }
+            }
+        };
+        promise.whenSettled(new Function<R, Void>() {
+            @Override
+            public Void call(R r) {
+                onDone.run();
+                return null;
+            }
+        }, new Action<Throwable>() {
+            @Override
+            public void call(Throwable e) {
+                onDone.run();
+            }
+        }, onDone);
+        return promise;
+    }
+
+    private boolean tryAcquire() {
+        int inFlight;
+        do {
+            inFlight = mInFlight.get();
+            if (inFlight >= mMaxConcurrent) return false;
+        } while (!mInFlight.compareAndSet(inFlight, inFlight + 1));
+        return true;
+    }
+
+    private void release() {
+        mInFlight.decrementAndGet();
+        drain();
+    }
+
+    /**
+     * 有空闲名额时启动排队的调用。入队和归还名额之后都要调用,避免两者交错时排队的调用没人启动
+     */
+    private void drain() {
+        while (!mQueue.isEmpty() && tryAcquire()) {
+            Runnable task = mQueue.poll();
+            if (task == null) {
+                mInFlight.decrementAndGet();
+                //归还名额和别的线程入队之间可能有竞争,再检查一次
+                continue;
+            }
+            mQueued.decrementAndGet();
+            task.run();
+        }
+    }
+
+    /**
+     * 取得新建promise的PromiseHandler
+     */
+    private static final class HandlerHolder<R> implements Action<PromiseHandler<R>> {
+        PromiseHandler<R> mHandler;
+
+        @Override
+        public void call(PromiseHandler<R> promiseHandler) {
+            mHandler = promiseHandler;
+        }
+    }
+}
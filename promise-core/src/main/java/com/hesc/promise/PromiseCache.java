@@ -0,0 +1,201 @@
+package com.hesc.promise;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>按key缓存promise的结果,并合并对同一个key的并发加载(single-flight)。</p>
+ * <p>同一个key在加载过程中的所有{@link #get(Object)}共享一次loader调用;resolved的结果缓存到ttl过期,
+ * 缓存数量超过maxSize时淘汰最久没有访问的key;rejected的结果立即移除,下一次get重新加载。</p>
+ * <p>key按哈希分到多个段,每个段有自己的锁和LRU表,热点缓存的并发访问不会都竞争同一把锁;
+ * 淘汰在段内按LRU进行,整体上是近似的LRU。</p>
+ */
+public final class PromiseCache<K, V> {
+
+    private static final int MAX_SEGMENTS = 16;
+    //每个段至少容纳的key数量,容量小的缓存段数少,LRU更精确
+    private static final int MIN_SEGMENT_CAPACITY = 16;
+
+    private final Function<K, Promise<V>> mLoader;
+    private final Executor mExecutor;
+    private final long mTtlNanos;
+    private final Segment<K, V>[] mSegments;
+
+    /**
+     * @param loader 加载key对应的值
+     * @param maxSize 最多缓存的key数量
+     * @param ttl resolved的结果缓存多久,不大于0时不过期
+     * @param executor get返回的promise的回调在该executor上执行
+     */
+    @SuppressWarnings("unchecked")
+    public PromiseCache(Function<K, Promise<V>> loader, int maxSize, long ttl, TimeUnit unit, Executor executor) {
+        if (loader == null || executor == null) throw new NullPointerException();
+        if (maxSize <= 0) throw new IllegalArgumentException("maxSize: " + maxSize);
+
+        mLoader = loader;
+        mExecutor = executor;
+        mTtlNanos = unit.toNanos(ttl);
+
+        int count = 1;
+        while (count < MAX_SEGMENTS && count * 2 * MIN_SEGMENT_CAPACITY <= maxSize) {
+            count <<= 1;
+        }
+        int capacity = (maxSize + count - 1) / count;
+        mSegments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            mSegments[i] = new Segment<>(capacity);
+        }
+    }
+
+    /**
+     * 回调在{@link PromiseExecutors#immediate()}上执行
+     * @see #PromiseCache(Function, int, long, TimeUnit, Executor)
+     */
+    public PromiseCache(Function<K, Promise<V>> loader, int maxSize, long ttl, TimeUnit unit) {
+        this(loader, maxSize, ttl, unit, PromiseExecutors.immediate());
+    }
+
+    /**
+     * 取得key对应的值:有未过期的缓存或正在进行的加载时共享它,否则调用loader加载。<br/>
+     * 每次调用返回一个新的promise,对它毁约只影响调用者自己,不会取消其他调用者共享的加载
+     */
+    public Promise<V> get(K key) {
+        return view(load(key));
+    }
+
+    /**
+     * 有未过期的缓存或正在进行的加载时返回它,否则返回null,不会触发加载
+     */
+    public Promise<V> getIfPresent(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        Promise<V> shared;
+        synchronized (segment) {
+            CacheEntry<V> entry = segment.get(key);
+            if (entry == null) return null;
+            if (isExpired(entry)) {
+                segment.remove(key);
+                return null;
+            }
+            shared = entry.mPromise;
+        }
+        return view(shared);
+    }
+
+    /**
+     * 移除key的缓存,正在进行的加载不受影响,但结果不再缓存
+     */
+    public void invalidate(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    public void invalidateAll() {
+        for (Segment<K, V> segment : mSegments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * 缓存的key数量,包括正在加载的key
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : mSegments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    private Promise<V> load(final K key) {
+        final Segment<K, V> segment = segmentFor(key);
+        final CacheEntry<V> entry;
+        synchronized (segment) {
+            CacheEntry<V> existing = segment.get(key);
+            if (existing != null && !isExpired(existing)) {
+                return existing.mPromise;
+            }
+            //锁内只创建惰性promise,loader在锁外执行
+            entry = new CacheEntry<>(Promise.defer(new Callable<Promise<V>>() {
+                @Override
+                public Promise<V> call() throws Exception {
+                    return mLoader.call(key);
+                }
+            }, mExecutor));
+            segment.put(key, entry);
+        }
+
+        entry.mPromise.start().then(new Function<V, Void>() {
+            @Override
+            public Void call(V v) {
+                entry.mLoadedAt = System.nanoTime();
+                entry.mLoaded = true;
+                return null;
+            }
+        }, new Action<Throwable>() {
+            @Override
+            public void call(Throwable throwable) {
+                synchronized (segment) {
+                    if (segment.get(key) == entry) {
+                        segment.remove(key);
+                    }
+                }
+            }
+        });
+        return entry.mPromise;
+    }
+
+    private Promise<V> view(final Promise<V> shared) {
+        return new Promise<>(new Action<PromiseHandler<V>>() {
+            @Override
+            public void call(PromiseHandler<V> promiseHandler) {
+                promiseHandler.resolvePromise(shared);
+            }
+        }, mExecutor);
+    }
+
+    private boolean isExpired(CacheEntry<V> entry) {
+        return mTtlNanos > 0 && entry.mLoaded && System.nanoTime() - entry.mLoadedAt >= mTtlNanos;
+    }
+
+    private Segment<K, V> segmentFor(Object key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return mSegments[h & (mSegments.length - 1)];
+    }
+
+    private static final class CacheEntry<V> {
+        final Promise<V> mPromise;
+        volatile boolean mLoaded;
+        volatile long mLoadedAt;
+
+        CacheEntry(Promise<V> promise) {
+            mPromise = promise;
+        }
+    }
+
+    /**
+     * 按访问顺序排列的LRU表,由调用者对段加锁
+     */
+    private static final class Segment<K, V> extends LinkedHashMap<K, CacheEntry<V>> {
+        private final int mCapacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            mCapacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+            return size() > mCapacity;
+        }
+    }
+}
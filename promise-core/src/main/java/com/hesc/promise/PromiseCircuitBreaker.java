@@ -0,0 +1,243 @@
+package com.hesc.promise;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>熔断器:统计滑动窗口内调用的失败率和慢调用率,超过阈值时打开,
+ * 打开期间的调用直接以{@link RejectedExecutionException}拒绝,不再访问已经变慢或出错的依赖。</p>
+ * <p>打开openDuration之后进入半开状态,只放行一次试探调用:成功则关闭并清空统计,失败则重新打开。</p>
+ * <p>滑动窗口由若干个时间桶组成,计数和状态切换都使用CAS,不加锁。统计是近似的,
+ * 桶轮转时并发写入的少量调用可能被丢弃。配置方法需要在开始使用之前调用。</p>
+ */
+public final class PromiseCircuitBreaker {
+    public static final int STATE_CLOSED = 0;
+    public static final int STATE_OPEN = 1;
+    public static final int STATE_HALF_OPEN = 2;
+
+    private static final int BUCKET_COUNT = 10;
+
+    private final double mFailureRateThreshold;
+    private final long mOpenDurationNanos;
+    private long mBucketNanos = TimeUnit.SECONDS.toNanos(1);
+    private int mMinimumCalls = 10;
+    private long mSlowCallNanos = Long.MAX_VALUE;
+    private double mSlowRateThreshold = 1;
+
+    private final AtomicInteger mState = new AtomicInteger(STATE_CLOSED);
+    private volatile long mOpenedAt;
+    //半开状态下是否已经放行了试探调用
+    private final AtomicBoolean mTrialRunning = new AtomicBoolean();
+    private final AtomicReferenceArray<Bucket> mBuckets = new AtomicReferenceArray<>(BUCKET_COUNT);
+
+    /**
+     * @param failureRateThreshold 失败率达到该值(0到1之间)时打开
+     * @param openDuration 打开之后多久进入半开状态
+     */
+    public PromiseCircuitBreaker(double failureRateThreshold, long openDuration, TimeUnit unit) {
+        if (failureRateThreshold <= 0 || failureRateThreshold > 1) {
+            throw new IllegalArgumentException("failureRateThreshold: " + failureRateThreshold);
+        }
+        mFailureRateThreshold = failureRateThreshold;
+        mOpenDurationNanos = unit.toNanos(openDuration);
+    }
+
+    /**
+     * 滑动窗口的长度,默认10秒
+     */
+    public PromiseCircuitBreaker setWindow(long window, TimeUnit unit) {
+        mBucketNanos = Math.max(1, unit.toNanos(window) / BUCKET_COUNT);
+        return this;
+    }
+
+    /**
+     * 窗口内至少有多少次调用才计算失败率,默认10
+     */
+    public PromiseCircuitBreaker setMinimumCalls(int minimumCalls) {
+        mMinimumCalls = minimumCalls;
+        return this;
+    }
+
+    /**
+     * 耗时超过slowCall的调用算作慢调用,慢调用率达到slowRateThreshold时同样打开。默认不统计慢调用
+     */
+    public PromiseCircuitBreaker setSlowCall(long slowCall, TimeUnit unit, double slowRateThreshold) {
+        mSlowCallNanos = unit.toNanos(slowCall);
+        mSlowRateThreshold = slowRateThreshold;
+        return this;
+    }
+
+    public int getState() {
+        int state = mState.get();
+        if (state == STATE_OPEN && System.nanoTime() - mOpenedAt >= mOpenDurationNanos) {
+            return STATE_HALF_OPEN;
+        }
+        return state;
+    }
+
+    /**
+     * 包装function:熔断器打开时返回的promise直接rejected,不调用function
+     * @param executor 直接拒绝时返回的promise的回调在该executor上执行
+     */
+    public <T, R> Function<T, Promise<R>> wrap(final Function<T, Promise<R>> function, final Executor executor) {
+        return new Function<T, Promise<R>>() {
+            @Override
+            public Promise<R> call(T t) {
+                return execute(function, t, executor);
+            }
+        };
+    }
+
+    /**
+     * @see #wrap(Function, Executor)
+     */
+    public <T, R> Function<T, Promise<R>> wrap(Function<T, Promise<R>> function) {
+        return wrap(function, PromiseExecutors.currentThread());
+    }
+
+    private <T, R> Promise<R> execute(Function<T, Promise<R>> function, T t, Executor executor) {
+        final boolean trial = !tryAcquire();
+        if (trial && !tryAcquireTrial()) {
+            return Promise.reject(new RejectedExecutionException("熔断器已打开"), executor, null);
+        }
+
+        final long start = System.nanoTime();
+        Promise<R> promise;
+        try {
+            promise = function.call(t);
+            if (promise == null) throw new NullPointerException("function返回了null");
+        } catch (Throwable e) {
+            //抛出Error时同样计为失败,试探调用要归还试探机会
+            onComplete(trial, false, 0);
+            throw e;
+        }
+
+        final AtomicBoolean done = new AtomicBoolean();
+        promise.whenSettled(new Function<R, Void>() {
+            @Override
+            public Void call(R r) {
+                if (done.compareAndSet(false, true)) {
+                    onComplete(trial, true, System.nanoTime() - start);
+                }
+                return null;
+            }
+        }, new Action<Throwable>() {
+            @Override
+            public void call(Throwable e) {
+                if (done.compareAndSet(false, true)) {
+                    onComplete(trial, false, System.nanoTime() - start);
+                }
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                //毁约的调用不计入统计,只归还试探机会
+                if (done.compareAndSet(false, true) && trial) {
+                    mTrialRunning.set(false);
+                }
+            }
+        });
+        return promise;
+    }
+
+    /**
+     * 关闭状态下放行
+     */
+    private boolean tryAcquire() {
+        return mState.get() == STATE_CLOSED;
+    }
+
+    /**
+     * 打开超过openDuration后进入半开状态,同一时刻只放行一次试探调用
+     */
+    private boolean tryAcquireTrial() {
+        int state = mState.get();
+        if (state == STATE_OPEN) {
+            if (System.nanoTime() - mOpenedAt < mOpenDurationNanos) return false;
+            mState.compareAndSet(STATE_OPEN, STATE_HALF_OPEN);
+            state = mState.get();
+        }
+        return state == STATE_HALF_OPEN && mTrialRunning.compareAndSet(false, true);
+    }
+
+    private void onComplete(boolean trial, boolean success, long latency) {
+        boolean slow = latency >= mSlowCallNanos;
+        if (trial) {
+            if (success && !slow) {
+                resetBuckets();
+                mState.compareAndSet(STATE_HALF_OPEN, STATE_CLOSED);
+            } else {
+                open(STATE_HALF_OPEN);
+            }
+            mTrialRunning.set(false);
+            return;
+        }
+
+        long now = System.nanoTime();
+        bucketFor(now).record(success, slow);
+        if (mState.get() != STATE_CLOSED) return;
+
+        long total = 0, failures = 0, slows = 0;
+        long epoch = now / mBucketNanos;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            Bucket bucket = mBuckets.get(i);
+            if (bucket == null || epoch - bucket.mEpoch >= BUCKET_COUNT) continue;
+            total += bucket.mTotal.get();
+            failures += bucket.mFailures.get();
+            slows += bucket.mSlows.get();
+        }
+        if (total < mMinimumCalls) return;
+        if (failures >= total * mFailureRateThreshold || slows >= total * mSlowRateThreshold) {
+            open(STATE_CLOSED);
+        }
+    }
+
+    private void open(int from) {
+        if (mState.compareAndSet(from, STATE_OPEN)) {
+            mOpenedAt = System.nanoTime();
+        }
+    }
+
+    private Bucket bucketFor(long now) {
+        long epoch = now / mBucketNanos;
+        //nanoTime可能是负数,取模结果要修正到[0, BUCKET_COUNT)
+        int index = (int) (((epoch % BUCKET_COUNT) + BUCKET_COUNT) % BUCKET_COUNT);
+        for (;;) {
+            Bucket bucket = mBuckets.get(index);
+            if (bucket != null && bucket.mEpoch == epoch) return bucket;
+            Bucket fresh = new Bucket(epoch);
+            if (mBuckets.compareAndSet(index, bucket, fresh)) return fresh;
+        }
+    }
+
+    private void resetBuckets() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mBuckets.set(i, null);
+        }
+    }
+
+    /**
+     * 一个时间段内的调用计数,过期后整体替换
+     */
+    private static final class Bucket {
+        final long mEpoch;
+        final AtomicLong mTotal = new AtomicLong();
+        final AtomicLong mFailures = new AtomicLong();
+        final AtomicLong mSlows = new AtomicLong();
+
+        Bucket(long epoch) {
+            mEpoch = epoch;
+        }
+
+        void record(boolean success, boolean slow) {
+            mTotal.incrementAndGet();
+            if (!success) mFailures.incrementAndGet();
+            if (slow) mSlows.incrementAndGet();
+        }
+    }
+}
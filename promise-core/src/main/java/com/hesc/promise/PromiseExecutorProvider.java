@@ -0,0 +1,21 @@
+package com.hesc.promise;
+
+import java.util.concurrent.Executor;
+
+/**
+ * <p>与运行平台相关的executor的提供者。</p>
+ * <p>{@link PromiseExecutors#currentThread()}和{@link PromiseExecutors#mainThread()}依赖平台的消息循环,
+ * 由平台适配模块实现该接口,并在META-INF/services/com.hesc.promise.PromiseExecutorProvider中声明,
+ * 也可以通过{@link PromiseExecutors#setProvider(PromiseExecutorProvider)}手动设置。</p>
+ */
+public interface PromiseExecutorProvider {
+    /**
+     * 把任务投递到当前线程的消息循环执行
+     */
+    Executor currentThread();
+
+    /**
+     * 把任务投递到主线程(UI线程)执行
+     */
+    Executor mainThread();
+}
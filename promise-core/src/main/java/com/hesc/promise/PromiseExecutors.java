@@ -0,0 +1,248 @@
+package com.hesc.promise;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by hesc on 16/8/4.
+ * <p>currentThread()和mainThread()由{@link PromiseExecutorProvider}提供,
+ * 没有可用的provider时(例如普通JVM),currentThread()在调用线程上立即执行,mainThread()抛出异常。</p>
+ * <p>io()、computation()、newThread()、virtual()和immediate()每次返回同一个executor。
+ * 线程池在第一次执行任务时才创建,创建之前可以修改线程数和线程工厂;
+ * {@link #shutdown(long, TimeUnit)}关闭所有线程池,之后再使用会重新创建。</p>
+ */
+public class PromiseExecutors {
+
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+    //合并投递每次排空的默认时间预算,约为60fps一帧的一半
+    private static final long DEFAULT_BATCH_BUDGET_MILLIS = 8;
+    //按优先级调度时普通和低优先级任务的默认延迟预算
+    private static final long DEFAULT_NORMAL_BUDGET_MILLIS = 100;
+    private static final long DEFAULT_LOW_BUDGET_MILLIS = 1000;
+
+    private static final ManagedExecutor.Pool sIo =
+            new ManagedExecutor.Pool("io", 0, Integer.MAX_VALUE, 60);
+    private static final ManagedExecutor.Computation sComputation =
+            new ManagedExecutor.Computation("computation", CPU_COUNT);
+    private static final ManagedExecutor.Pool sNewThread =
+            new ManagedExecutor.Pool("new-thread", 1, 1, 0);
+    private static final ManagedExecutor sVirtual = new ManagedExecutor("virtual") {
+        @Override
+        ExecutorService create() {
+            ExecutorService service = createVirtualExecutor();
+            return service != null ? service : sIo.create();
+        }
+    };
+    private static final ManagedExecutor[] sManaged = {sIo, sComputation, sNewThread, sVirtual};
+
+    private static final Executor sImmediate = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static volatile PromiseExecutorProvider sProvider = loadProvider();
+
+    private static class VirtualHolder {
+        //运行时是否支持虚拟线程(java 21+)
+        static final Method FACTORY = findVirtualFactory();
+    }
+
+    private static Method findVirtualFactory(){
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static ExecutorService createVirtualExecutor(){
+        Method factory = VirtualHolder.FACTORY;
+        if (factory == null) return null;
+        try {
+            return (ExecutorService) factory.invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static PromiseExecutorProvider loadProvider(){
+        Iterator<PromiseExecutorProvider> iterator = ServiceLoader.load(PromiseExecutorProvider.class,
+                PromiseExecutors.class.getClassLoader()).iterator();
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    /**
+     * 设置平台相关的executor提供者,覆盖通过ServiceLoader找到的provider
+     */
+    public static void setProvider(PromiseExecutorProvider provider){
+        sProvider = provider;
+    }
+
+    public static PromiseExecutorProvider getProvider(){
+        return sProvider;
+    }
+
+    public static Executor io(){
+        return sIo;
+    }
+
+    public static Executor immediate(){
+        return sImmediate;
+    }
+
+    /**
+     * 运行时是否支持虚拟线程
+     */
+    public static boolean isVirtualThreadSupported(){
+        return VirtualHolder.FACTORY != null;
+    }
+
+    /**
+     * 适合执行阻塞任务的executor:支持虚拟线程时每个任务在一个新的虚拟线程上执行,
+     * 阻塞时虚拟线程让出载体线程,不会因为大量阻塞I/O创建成千上万个平台线程;
+     * 不支持时退回到与{@link #io()}相同配置的线程池
+     */
+    public static Executor virtual(){
+        return sVirtual;
+    }
+
+    static ExecutorService virtualService(){
+        return sVirtual.service();
+    }
+
+    /**
+     * 计算密集型任务的executor,基于async模式的ForkJoinPool,线程数默认为CPU核数。
+     * 在它的工作线程上触发的续体进入该线程自己的队列,减少队列竞争
+     */
+    public static Executor computation(){
+        return sComputation;
+    }
+
+    public static Executor newThread(){
+        return sNewThread;
+    }
+
+    public static Executor mainThread(){
+        PromiseExecutorProvider provider = sProvider;
+        if(provider == null){
+            throw new IllegalStateException("没有可用的PromiseExecutorProvider, 无法投递到主线程");
+        }
+        return provider.mainThread();
+    }
+
+    public static Executor currentThread(){
+        PromiseExecutorProvider provider = sProvider;
+        return provider == null ? immediate() : provider.currentThread();
+    }
+
+    /**
+     * 把投递到单线程消息循环的任务合并成批:同一批任务只向target投递一条消息,
+     * 每条消息最多执行8毫秒,剩余任务在下一条消息中继续执行。
+     * 适合包装Handler、事件循环等每次投递都有开销的串行executor,平台provider的currentThread()和mainThread()已经使用
+     */
+    public static Executor batching(Executor target){
+        return batching(target, DEFAULT_BATCH_BUDGET_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 同{@link #batching(Executor)},每条消息最多执行budget时间,至少执行一个任务
+     */
+    public static Executor batching(Executor target, long budget, TimeUnit unit){
+        return new BatchingExecutor(target, unit.toNanos(budget));
+    }
+
+    /**
+     * 按key串行执行的executor集合:同一个key的任务按提交顺序依次执行,不同key的任务在backing上并行执行,
+     * 不需要为每个key创建线程,也不需要用newThread()做全局串行
+     */
+    public static <K> KeyedExecutor<K> keyed(Executor backing){
+        return new KeyedExecutor<>(backing);
+    }
+
+    /**
+     * 在backing之上按截止时间调度任务,例如让界面相关的续体不必排在后台批量任务之后。
+     * 高优先级任务立即到期,普通和低优先级任务分别有100毫秒和1秒的延迟预算
+     * @see PriorityScheduler
+     */
+    public static PriorityScheduler prioritized(Executor backing){
+        return prioritized(backing, DEFAULT_NORMAL_BUDGET_MILLIS, DEFAULT_LOW_BUDGET_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 同{@link #prioritized(Executor)},指定普通和低优先级任务的延迟预算。
+     * 低优先级任务最多比新提交的高优先级任务多等待lowBudget
+     */
+    public static PriorityScheduler prioritized(Executor backing, long normalBudget, long lowBudget, TimeUnit unit){
+        return new PriorityScheduler(backing, normalBudget, lowBudget, unit);
+    }
+
+    /**
+     * 设置io()线程池的最大线程数,默认不限制。线程都在忙时新任务排队等待,空闲线程超时后回收。<br/>
+     * 必须在io()第一次执行任务之前(或shutdown之后)调用
+     */
+    public static void setIoPoolSize(int maxSize){
+        sIo.setPoolSize(0, maxSize);
+    }
+
+    /**
+     * 设置computation()线程池的线程数,默认为CPU核数。必须在computation()第一次执行任务之前(或shutdown之后)调用
+     */
+    public static void setComputationPoolSize(int size){
+        sComputation.setPoolSize(size, size);
+    }
+
+    /**
+     * 设置io()、computation()、newThread()创建线程使用的线程工厂,为null时恢复默认。
+     * 设置之后computation()改用固定大小的线程池。
+     * 必须在这些线程池第一次执行任务之前(或shutdown之后)调用
+     */
+    public static void setThreadFactory(ThreadFactory threadFactory){
+        sIo.setThreadFactory(threadFactory);
+        sComputation.setThreadFactory(threadFactory);
+        sNewThread.setThreadFactory(threadFactory);
+    }
+
+    /**
+     * 关闭所有线程池:不再接受新任务,已提交的任务继续执行,最多等待timeout。
+     * 返回是否所有线程池都已结束
+     */
+    public static boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        List<ExecutorService> services = new ArrayList<>();
+        for (ManagedExecutor executor : sManaged) {
+            ExecutorService service = executor.shutdown();
+            if (service != null) services.add(service);
+        }
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean terminated = true;
+        for (ExecutorService service : services) {
+            long remaining = deadline - System.nanoTime();
+            terminated &= service.awaitTermination(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+        }
+        return terminated;
+    }
+
+    /**
+     * executor中排队等待执行的任务数,executor不是本类管理的线程池时返回-1
+     */
+    public static int getQueueSize(Executor executor){
+        return executor instanceof ManagedExecutor ? ((ManagedExecutor) executor).getQueueSize() : -1;
+    }
+
+    /**
+     * executor中正在执行任务的线程数,executor不是本类管理的线程池时返回-1
+     */
+    public static int getActiveCount(Executor executor){
+        return executor instanceof ManagedExecutor ? ((ManagedExecutor) executor).getActiveCount() : -1;
+    }
+}
@@ -22,4 +22,16 @@ public interface PromiseHandler<T> {
      * @param e
      */
     void reject(Throwable e);
+
+    /**
+     * 注册promise被毁约时执行的操作,已经毁约则立即执行。
+     * 可用于取消正在执行的异步任务,例如取消{@link java.util.concurrent.Future}或中断线程
+     * @param action
+     */
+    void onBroke(Runnable action);
+
+    /**
+     * promise是否已经被毁约,长时间运行的任务可以据此提前结束
+     */
+    boolean isBroken();
 }
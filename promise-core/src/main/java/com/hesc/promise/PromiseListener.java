@@ -0,0 +1,38 @@
+package com.hesc.promise;
+
+/**
+ * <p>promise生命周期的监听接口,用于统计和追踪,通过{@link Promise#setListener(PromiseListener)}安装。</p>
+ * <p>没有安装监听器时各个事件点只多一次静态字段读取,不取时间、不分配对象。
+ * 回调在触发事件的线程上同步执行,实现需要线程安全且足够轻量,不能抛出异常。</p>
+ * <p>续体指通过then等方法注册到promise上的回调,事件中的promise是续体所等待的那个promise。</p>
+ * @see PromiseMetrics
+ */
+public interface PromiseListener {
+    /**
+     * promise被创建
+     */
+    void onCreate(Promise<?> promise);
+
+    /**
+     * promise结束
+     * @param pendingNanos 从创建到结束的纳秒数,创建时还没有安装监听器则为-1
+     */
+    void onSettle(Promise<?> promise, boolean resolved, long pendingNanos);
+
+    /**
+     * promise结束后,等待它的续体进入待执行状态
+     */
+    void onEnqueue(Promise<?> promise);
+
+    /**
+     * 续体开始执行
+     * @param queuedNanos 从进入待执行状态到开始执行的纳秒数,不可知时为-1
+     */
+    void onStart(Promise<?> promise, long queuedNanos);
+
+    /**
+     * 续体执行结束
+     * @param runNanos 续体执行的纳秒数
+     */
+    void onEnd(Promise<?> promise, long runNanos);
+}
@@ -0,0 +1,141 @@
+package com.hesc.promise;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>内置的{@link PromiseListener}实现,按{@link Promise#getName()}分组统计:
+ * 创建、resolved、rejected和未结束的promise数量,以及pending时间、续体排队时间和执行时间的直方图。</p>
+ * <p>没有名字的promise计入{@link #UNNAMED}组。统计全部使用原子计数,没有锁。</p>
+ * <pre>
+ * PromiseMetrics metrics = new PromiseMetrics();
+ * Promise.setListener(metrics);
+ * ...
+ * metrics.getStats("load-user").getPendingTime().getPercentile(0.99, TimeUnit.MILLISECONDS);
+ * </pre>
+ */
+public final class PromiseMetrics implements PromiseListener {
+    public static final String UNNAMED = "<unnamed>";
+
+    private final ConcurrentMap<String, Stats> mStats = new ConcurrentHashMap<>();
+
+    @Override
+    public void onCreate(Promise<?> promise) {
+        statsOf(promise).mCreated.incrementAndGet();
+    }
+
+    @Override
+    public void onSettle(Promise<?> promise, boolean resolved, long pendingNanos) {
+        Stats stats = statsOf(promise);
+        (resolved ? stats.mResolved : stats.mRejected).incrementAndGet();
+        if (pendingNanos >= 0) {
+            stats.mPendingTime.record(pendingNanos);
+        }
+    }
+
+    @Override
+    public void onEnqueue(Promise<?> promise) {
+        statsOf(promise).mEnqueued.incrementAndGet();
+    }
+
+    @Override
+    public void onStart(Promise<?> promise, long queuedNanos) {
+        if (queuedNanos >= 0) {
+            statsOf(promise).mQueueTime.record(queuedNanos);
+        }
+    }
+
+    @Override
+    public void onEnd(Promise<?> promise, long runNanos) {
+        statsOf(promise).mRunTime.record(runNanos);
+    }
+
+    /**
+     * 指定名字的统计,没有记录过时返回null
+     */
+    public Stats getStats(String name) {
+        return mStats.get(name == null ? UNNAMED : name);
+    }
+
+    public Set<String> getNames() {
+        return mStats.keySet();
+    }
+
+    public void reset() {
+        mStats.clear();
+    }
+
+    private Stats statsOf(Promise<?> promise) {
+        String name = promise.getName();
+        if (name == null || name.length() == 0) name = UNNAMED;
+        Stats stats = mStats.get(name);
+        if (stats == null) {
+            Stats created = new Stats();
+            stats = mStats.putIfAbsent(name, created);
+            if (stats == null) stats = created;
+        }
+        return stats;
+    }
+
+    /**
+     * 一组promise的统计
+     */
+    public static final class Stats {
+        private final AtomicLong mCreated = new AtomicLong();
+        private final AtomicLong mResolved = new AtomicLong();
+        private final AtomicLong mRejected = new AtomicLong();
+        private final AtomicLong mEnqueued = new AtomicLong();
+        private final LatencyHistogram mPendingTime = new LatencyHistogram();
+        private final LatencyHistogram mQueueTime = new LatencyHistogram();
+        private final LatencyHistogram mRunTime = new LatencyHistogram();
+
+        public long getCreated() {
+            return mCreated.get();
+        }
+
+        public long getResolved() {
+            return mResolved.get();
+        }
+
+        public long getRejected() {
+            return mRejected.get();
+        }
+
+        /**
+         * 创建之后还没有结束的promise数量(近似值,名字在创建后被修改的promise会计入不同的组)
+         */
+        public long getOutstanding() {
+            return mCreated.get() - mResolved.get() - mRejected.get();
+        }
+
+        /**
+         * 进入待执行状态的续体数量
+         */
+        public long getEnqueued() {
+            return mEnqueued.get();
+        }
+
+        /**
+         * 从创建到结束的时间
+         */
+        public LatencyHistogram getPendingTime() {
+            return mPendingTime;
+        }
+
+        /**
+         * 续体从进入待执行状态到开始执行的时间
+         */
+        public LatencyHistogram getQueueTime() {
+            return mQueueTime;
+        }
+
+        /**
+         * 续体执行的时间
+         */
+        public LatencyHistogram getRunTime() {
+            return mRunTime;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.hesc.promise;
+
+/**
+ * <p>promise的最终结果,由{@link Promise#allSettled(java.util.concurrent.Executor, String, Iterable)}返回。</p>
+ * <p>resolved时保存返回值,rejected时保存异常。</p>
+ */
+public final class PromiseResult<T> {
+    private final boolean mResolved;
+    private final T mValue;
+    private final Throwable mThrowable;
+
+    private PromiseResult(boolean resolved, T value, Throwable throwable) {
+        mResolved = resolved;
+        mValue = value;
+        mThrowable = throwable;
+    }
+
+    static <T> PromiseResult<T> resolved(T value) {
+        return new PromiseResult<>(true, value, null);
+    }
+
+    static <T> PromiseResult<T> rejected(Throwable throwable) {
+        return new PromiseResult<>(false, null, throwable);
+    }
+
+    public boolean isResolved() {
+        return mResolved;
+    }
+
+    public boolean isRejected() {
+        return !mResolved;
+    }
+
+    /**
+     * resolved时的返回值,rejected时为null
+     */
+    public T getValue() {
+        return mValue;
+    }
+
+    /**
+     * rejected时的异常,resolved时为null
+     */
+    public Throwable getThrowable() {
+        return mThrowable;
+    }
+
+    @Override
+    public String toString() {
+        return mResolved ? "Resolved(" + mValue + ")" : "Rejected(" + mThrowable + ")";
+    }
+}
@@ -0,0 +1,94 @@
+package com.hesc.promise;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>{@link Promise#retry(Supplier, RetryPolicy, java.util.concurrent.Executor, String)}的重试策略。</p>
+ * <p>第n次重试前等待initialDelay * multiplier^(n-1),不超过maxDelay;
+ * jitter为j时实际等待时间在[delay * (1 - j), delay]之间随机,避免大量调用者同时重试。
+ * 达到最大尝试次数、超过最长总时间或retryOn返回false时不再重试。</p>
+ */
+public final class RetryPolicy {
+    private static final Random RANDOM = new Random();
+
+    private final int mMaxAttempts;
+    private final long mInitialDelayNanos;
+    private final long mMaxDelayNanos;
+    private double mMultiplier = 2;
+    private double mJitter = 0.5;
+    private long mMaxElapsedNanos = Long.MAX_VALUE;
+    private Function<Throwable, Boolean> mRetryOn;
+
+    /**
+     * @param maxAttempts 最多尝试的次数,包括第一次
+     * @param initialDelay 第一次重试前的等待时间
+     * @param maxDelay 每次重试前最长的等待时间
+     */
+    public RetryPolicy(int maxAttempts, long initialDelay, long maxDelay, TimeUnit unit) {
+        if (maxAttempts <= 0) throw new IllegalArgumentException("maxAttempts: " + maxAttempts);
+        mMaxAttempts = maxAttempts;
+        mInitialDelayNanos = unit.toNanos(initialDelay);
+        mMaxDelayNanos = unit.toNanos(maxDelay);
+    }
+
+    /**
+     * 每次重试等待时间的增长倍数,默认为2
+     */
+    public RetryPolicy setMultiplier(double multiplier) {
+        if (multiplier < 1) throw new IllegalArgumentException("multiplier: " + multiplier);
+        mMultiplier = multiplier;
+        return this;
+    }
+
+    /**
+     * 等待时间随机减少的比例,0到1之间,默认为0.5
+     */
+    public RetryPolicy setJitter(double jitter) {
+        if (jitter < 0 || jitter > 1) throw new IllegalArgumentException("jitter: " + jitter);
+        mJitter = jitter;
+        return this;
+    }
+
+    /**
+     * 从第一次尝试开始的最长总时间,下一次重试会超过它时不再重试
+     */
+    public RetryPolicy setMaxElapsed(long maxElapsed, TimeUnit unit) {
+        mMaxElapsedNanos = unit.toNanos(maxElapsed);
+        return this;
+    }
+
+    /**
+     * 判断异常是否需要重试,默认所有异常都重试
+     */
+    public RetryPolicy setRetryOn(Function<Throwable, Boolean> retryOn) {
+        mRetryOn = retryOn;
+        return this;
+    }
+
+    public int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    /**
+     * 第attempt次尝试失败后是否还要重试
+     */
+    boolean shouldRetry(int attempt, Throwable e) {
+        if (attempt >= mMaxAttempts) return false;
+        Function<Throwable, Boolean> retryOn = mRetryOn;
+        return retryOn == null || Boolean.TRUE.equals(retryOn.call(e));
+    }
+
+    /**
+     * 第attempt次尝试失败后,下一次重试前等待的纳秒数
+     */
+    long nextDelayNanos(int attempt) {
+        double delay = mInitialDelayNanos * Math.pow(mMultiplier, attempt - 1);
+        delay = Math.min(delay, mMaxDelayNanos);
+        return (long) (delay * (1 - mJitter * RANDOM.nextDouble()));
+    }
+
+    long getMaxElapsedNanos() {
+        return mMaxElapsedNanos;
+    }
+}
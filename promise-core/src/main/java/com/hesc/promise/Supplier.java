@@ -0,0 +1,8 @@
+package com.hesc.promise;
+
+/**
+ * 无参数、返回一个值的回调,例如每次调用创建一个新的promise
+ */
+public interface Supplier<T> {
+    T call();
+}
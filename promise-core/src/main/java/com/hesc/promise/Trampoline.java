@@ -0,0 +1,135 @@
+package com.hesc.promise;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * <p>线程内的续体蹦床。</p>
+ * <p>记录当前线程正在哪个{@link Executor}上执行续体,同一executor上的续体不再重新派发,而是直接在本线程执行;
+ * 执行过程中新产生的续体先进入队列,由最外层循环依次取出执行,从而把递归展开成循环,
+ * 再长的then链也不会增加调用栈深度。</p>
+ */
+final class Trampoline {
+
+    private static final ThreadLocal<Trampoline> LOCAL = new ThreadLocal<Trampoline>() {
+        @Override
+        protected Trampoline initialValue() {
+            return new Trampoline();
+        }
+    };
+
+    //当前正在执行续体的executor
+    private Executor mCurrent;
+    //是否已有外层循环在执行
+    private boolean mRunning;
+    //待执行的续体,executor和runnable成对交替存放,避免每次入队都分配对象。
+    //第一次嵌套时才创建,大量只执行一次续体的线程(例如虚拟线程)不必为它分配内存
+    private ArrayDeque<Object> mQueue;
+    //执行续体时抛出的第一个异常
+    private Throwable mFailure;
+
+    private Trampoline() {
+    }
+
+    /**
+     * 在当前executor上执行task,已有外层循环时入队,否则立即执行并清空队列
+     */
+    static void execute(Runnable task) {
+        Trampoline trampoline = LOCAL.get();
+        trampoline.run(trampoline.mCurrent, task);
+    }
+
+    /**
+     * 把task派发到executor:当前线程已在该executor上时直接经由蹦床执行,否则提交给executor
+     */
+    static void dispatch(final Executor executor, final Runnable task) {
+        final Trampoline trampoline = LOCAL.get();
+        if (trampoline.mCurrent == executor) {
+            trampoline.run(executor, task);
+            return;
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Trampoline current = LOCAL.get();
+                Executor previous = current.mCurrent;
+                try {
+                    current.run(executor, task);
+                } finally {
+                    current.mCurrent = previous;
+                }
+            }
+        });
+    }
+
+    /**
+     * 当前线程的外层循环正在执行续体时,就地执行队列中待执行的续体,直到队列为空。<br/>
+     * 在续体中阻塞等待之前调用:等待的结果可能正排在本线程的队列里,不先执行就永远等不到
+     */
+    static void drain() {
+        Trampoline trampoline = LOCAL.get();
+        if (!trampoline.mRunning || trampoline.mQueue == null) return;
+
+        Executor current = trampoline.mCurrent;
+        try {
+            trampoline.runQueued();
+        } finally {
+            trampoline.mCurrent = current;
+        }
+    }
+
+    private void run(Executor executor, Runnable task) {
+        if (mRunning) {
+            if (mQueue == null) {
+                mQueue = new ArrayDeque<>();
+            }
+            mQueue.add(executor == null ? (Object) this : executor);
+            mQueue.add(task);
+            return;
+        }
+
+        mRunning = true;
+        Executor base = mCurrent;
+        try {
+            mCurrent = executor;
+            runSafely(task);
+            runQueued();
+        } finally {
+            mRunning = false;
+            mCurrent = base;
+        }
+
+        //队列已清空,再把第一个异常抛出,保持与直接调用时相同的异常传递
+        Throwable failure = mFailure;
+        mFailure = null;
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new RuntimeException(failure);
+        }
+    }
+
+    private void runQueued() {
+        while (mQueue != null && !mQueue.isEmpty()) {
+            Object owner = mQueue.poll();
+            mCurrent = owner == this ? null : (Executor) owner;
+            runSafely((Runnable) mQueue.poll());
+        }
+    }
+
+    /**
+     * 执行task,只记录第一个异常,由最外层循环在队列清空后抛出
+     */
+    private void runSafely(Runnable task) {
+        try {
+            task.run();
+        } catch (Throwable e) {
+            if (mFailure == null) {
+                mFailure = e;
+            }
+        }
+    }
+}
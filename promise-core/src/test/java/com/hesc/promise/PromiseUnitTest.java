@@ -0,0 +1,2166 @@
+package com.hesc.promise;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * To work on unit tests, switch the Test Artifact in the Build Variants view.
+ */
+public class PromiseUnitTest {
+
+    private static class MockThreadFactory implements ThreadFactory {
+        private volatile int threadCount = 0;
+        private List<String> mLockedThreads = new Vector<>();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, "thread-" + (++threadCount));
+        }
+
+        public void acquire(){
+            mLockedThreads.add(Thread.currentThread().getName());
+        }
+
+        public void release(){
+            mLockedThreads.remove(Thread.currentThread().getName());
+        }
+
+        public void join() throws InterruptedException {
+            while(true){
+                if(!mLockedThreads.isEmpty()){
+                    Thread.sleep(10);
+                } else {
+                    break;
+                }
+            }
+        }
+
+    }
+
+    private MockThreadFactory mThreadFactory = new MockThreadFactory();
+
+    private Executor mMockExecutor =  createExecutor();
+
+    private Executor createExecutor(){
+        return new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                mThreadFactory.newThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        mThreadFactory.acquire();
+                        try {
+                            command.run();
+                        } finally {
+                            mThreadFactory.release();
+                        }
+                    }
+                }).run();
+            }
+        };
+    }
+
+    @Test
+    public void normalPromise() throws Exception{
+        Promise<Integer> promise = new Promise<>(new Action<PromiseHandler<Integer>>() {
+            @Override
+            public void call(PromiseHandler<Integer> handler) {
+                handler.resolve(100);
+            }
+        }, mMockExecutor, "normalPromise");
+        promise.then(new Function<Integer, Integer>() {
+            @Override
+            public Integer call(Integer integer) {
+                assertEquals((long) integer, 100);
+                return 100;
+            }
+        }).exception(new Action<Throwable>() {
+            @Override
+            public void call(Throwable throwable) {
+            }
+        }).then(new Function<Object, Void>() {
+            @Override
+            public Void call(Object o) {
+                assertEquals((long)(Integer) o, 100);
+                return null;
+            }
+        });
+
+        mThreadFactory.join();
+    }
+
+    @Test
+    public void normalPromise_1() throws Exception{
+        Promise<Integer> promise = new Promise<>(new Action<PromiseHandler<Integer>>() {
+            @Override
+            public void call(PromiseHandler<Integer> handler) {
+                handler.resolve(100);
+            }
+        }, mMockExecutor, "normalPromise");
+        promise.exception(new Action<Throwable>() {
+            @Override
+            public void call(Throwable throwable) {
+
+            }
+        }).then(new Function<Object, Void>() {
+            @Override
+            public Void call(Object o) {
+                assertEquals((long)(Integer) o, 100);
+                return null;
+            }
+        });
+
+        mThreadFactory.join();
+    }
+
+    @Test
+    public void normalPromiseOnChain() throws Exception{
+        Promise<Integer> promise = new Promise<>(new Action<PromiseHandler<Integer>>() {
+            @Override
+            public void call(PromiseHandler<Integer> handler) {
+                handler.resolve(100);
+            }
+        }, mMockExecutor, "normalPromiseOnChain");
+        promise.then(new Function<Integer, Integer>() {
+            @Override
+            public Integer call(Integer integer) {
+                assertEquals((long)integer, 100L);
+                return 60;
+            }
+        }).then(new Function<Integer, Void>() {
+            @Override
+            public Void call(Integer integer) {
+                assertEquals((long)integer, 60);
+                return null;
+            }
+        }).thenPromise(new Function<Void, Promise<Integer>>() {
+            @Override
+            public Promise<Integer> call(Void aVoid) {
+                return new Promise<Integer>(new Action<PromiseHandler<Integer>>() {
+                    @Override
+                    public void call(PromiseHandler<Integer> handler) {
+                        handler.resolve(200);
+                    }
+                },mMockExecutor, "normalPromiseOnChain-1");
+            }
+        }).then(new Function<Integer, Void>() {
+            @Override
+            public Void call(Integer integer) {
+                assertEquals((long)integer, 200);
+                return null;
+            }
+        });
+        mThreadFactory.join();
+    }
+
+    @Test
+    public void normalPromiseOnChain_1() throws Exception{
+        Promise<Integer> promise = new Promise<>(new Action<PromiseHandler<Integer>>() {
+            @Override
+            public void call(PromiseHandler<Integer> handler) {
+                handler.resolve(100);
+            }
+        }, mMockExecutor, "normalPromiseOnChain");
+
+        Promise<Integer> newPromise;
+        for(int i=0; i<1000; i++){
+            newPromise = promise;
+            for(int j=0; j<10; j++) {
+                newPromise = newPromise.then(new Function<Integer, Integer>() {
+                    @Override
+                    public Integer call(Integer integer) {
+                        assertEquals((long) integer, 100L);
+                        return integer;
+                    }
+                });
+            }
+        }
+        mThreadFactory.join();
+    }
+
+    @Test
+    public void normalPromiseOnMoreTime() throws Exception{
+        Promise<Integer> promise = new Promise<>(new Action<PromiseHandler<Integer>>() {
+            @Override
+            public void call(PromiseHandler<Integer> handler) {
+                handler.resolve(100);
+            }
+        }, mMockExecutor, "normalPromiseOnMoreTime");
+
+        for(int i =0; i<1000; i++) {
+            promise.then(new Function<Integer, Void>() {
+                @Override
+                public Void call(Integer integer) {
+                    assertEquals((long) integer, 100L);
+                    return null;
+                }
+            });
+        }
+        mThreadFactory.join();
+    }
+
+    @Test
+    public void normalPromiseOnThread() throws Exception{
+        Promise<Integer> promise = new Promise<>(new Action<PromiseHandler<Integer>>() {
+            @Override
+            public void call(final PromiseHandler<Integer> handler) {
+                Executors.newSingleThreadExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handler.resolve(100);
+                    }
+                });
+            }
+        }, mMockExecutor, "normalPromiseOnThread");
+
+        for(int i=0; i<1000; i++) {
+            promise.then(new Function<Integer, Void>() {
+                @Override
+                public Void call(Integer integer) {
+                    assertEquals((long) integer, 100L);
+                    return null;
+                }
+            });
+        }
+        mThreadFactory.join();
+    }
+
+    @Test
+    public void normalPromiseOnNesting() throws Exception{
+        Executor executor = mMockExecutor;
+
+        final Promise<Integer> nestedPromise = new Promise<Integer>(new Action<PromiseHandler<Integer>>() {
+            @Override
+            public void call(PromiseHandler<Integer> handler) {
+                handler.resolve(100);
+            }
+        }, executor, "normalPromiseOnNesting-1");
+
+        Promise<Integer> promise = new Promise<>(new Action<PromiseHandler<Integer>>() {
+            @Override
+            public void call(PromiseHandler<Integer> handler) {
+                handler.resolvePromise(nestedPromise);
+            }
+        }, executor, "normalPromiseOnNesting");
+
+        for(int i=0; i<1000; i++) {
+            promise.then(new Function<Integer, Void>() {
+                @Override
+                public Void call(Integer integer) {
+                    assertEquals((long) integer, 100);
+                    return null;
+                }
+            }).exception(new Action<Throwable>() {
+                @Override
+                public void call(Throwable throwable) {
+                    throwable.printStackTrace();
+                    assertTrue(true);
+                }
+            });
+        }
+        mThreadFactory.join();
+    }
+
+    @Test
+    public void allPromise() throws Exception {
+        Promise<Integer>[] promises = new Promise[10];
+        final Executor executor = createExecutor();
+        Executor mockExecutor = mMockExecutor;
+
+        int[] sleepTimes = new int[]{
+                100,
+                200,
+                500,
+                600,
+                400,
+                300,
+                250,
+                50,
+                700,
+                900,
+        };
+
+        for(int i=0; i<10; i++){
+            final long sleepTime = sleepTimes[i];
+            final int value = (i+1)*10;
+
+            promises[i] = new Promise<>(new Action<PromiseHandler<Integer>>() {
+                @Override
+                public void call(final PromiseHandler<Integer> handler) {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                Thread.sleep(sleepTime);
+                            } catch (InterruptedException e) {
+                                e.printStackTrace();
+                            }
+                            handler.resolve(value);
+                        }
+                    });
+                }
+            }, mockExecutor, "allPromise" + i);
+        }
+
+        Promise<List<Integer>> newPromise = Promise.all(mockExecutor, "allPromise_new", promises);
+        newPromise.then(new Function<List<Integer>, Void>() {
+            @Override
+            public Void call(List<Integer> integers) {
+                assertEquals(10, integers.size());
+                return null;
+            }
+        });
+        mThreadFactory.join();
+    }
+
+    @Test
+    public void racePromise() throws Exception {
+        Promise<Integer>[] promises = new Promise[10];
+        final Executor executor = createExecutor();
+        Executor mockExecutor = mMockExecutor;
+
+        int[] sleepTimes = new int[]{
+                100,
+                200,
+                500,
+                600,
+                400,
+                300,
+                250,
+                50,
+                700,
+                900,
+        };
+
+        for(int i=0; i<10; i++){
+            final long sleepTime = sleepTimes[i];
+            final int value = (i+1)*10;
+
+            promises[i] = new Promise<>(new Action<PromiseHandler<Integer>>() {
+                @Override
+                public void call(final PromiseHandler<Integer> handler) {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                Thread.sleep(sleepTime);
+                            } catch (InterruptedException e) {
+                                e.printStackTrace();
+                            }
+                            handler.resolve(value);
+                        }
+                    });
+                }
+            }, mockExecutor, "racePromise" + i);
+        }
+
+        Promise<Integer> newPromise = Promise.race(mockExecutor, "racePromise_new", promises);
+        newPromise.then(new Function<Integer, Object>() {
+            @Override
+            public Object call(Integer integer) {
+                assertEquals(80, (long)integer);
+                return null;
+            }
+        });
+        mThreadFactory.join();
+    }
+
+    @Test
+    public void concurrentSettleStress() throws Exception {
+        final int threadCount = 8;
+        final int promiseCount = 20000;
+        final Executor executor = PromiseExecutors.immediate();
+
+        final List<PromiseHandler<Integer>> handlers = new ArrayList<>(promiseCount);
+        final List<Promise<Integer>> promises = new ArrayList<>(promiseCount);
+        for(int i=0; i<promiseCount; i++){
+            promises.add(new Promise<>(new Action<PromiseHandler<Integer>>() {
+                @Override
+                public void call(PromiseHandler<Integer> handler) {
+                    handlers.add(handler);
+                }
+            }, executor, "concurrentSettleStress" + i));
+        }
+
+        final AtomicInteger callbacks = new AtomicInteger();
+        final AtomicInteger winners = new AtomicInteger();
+        final AtomicInteger losers = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threadCount);
+        //工作线程结束后getThreadInfo返回null,在线程内记录等待进入monitor的次数
+        final ThreadMXBean mxBean = ManagementFactory.getThreadMXBean();
+        final AtomicLong blocked = new AtomicLong();
+        for(int t=0; t<threadCount; t++){
+            final int index = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long blockedBefore = mxBean.getThreadInfo(Thread.currentThread().getId()).getBlockedCount();
+                    try {
+                        start.await();
+                        for(int i=0; i<promiseCount; i++){
+                            //一个线程订阅,其余线程争抢resolve
+                            if(i % threadCount == index){
+                                promises.get(i).then(new Function<Integer, Void>() {
+                                    @Override
+                                    public Void call(Integer integer) {
+                                        callbacks.incrementAndGet();
+                                        return null;
+                                    }
+                                });
+                            } else {
+                                try {
+                                    handlers.get(i).resolve(i);
+                                    winners.incrementAndGet();
+                                } catch (IllegalStateException e){
+                                    losers.incrementAndGet();
+                                }
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    } finally {
+                        ThreadInfo info = mxBean.getThreadInfo(Thread.currentThread().getId());
+                        blocked.addAndGet(info.getBlockedCount() - blockedBefore);
+                        done.countDown();
+                    }
+                }
+            }, "settle-" + t).start();
+        }
+
+        start.countDown();
+        done.await();
+
+        //重复resolve仍然被拒绝,每个promise只有一个胜者,每个回调只执行一次
+        assertEquals(promiseCount, winners.get());
+        assertEquals((long) promiseCount * (threadCount - 2), losers.get());
+        assertEquals(promiseCount, callbacks.get());
+        //状态切换无锁,不应该有线程因为争抢monitor而阻塞
+        assertTrue(blocked.get() < promiseCount / 100);
+    }
+
+    @Test
+    public void multiSubscriberPromise() throws Exception {
+        final PromiseHandler<Integer>[] handlers = new PromiseHandler[1];
+        Promise<Integer> promise = new Promise<>(new Action<PromiseHandler<Integer>>() {
+            @Override
+            public void call(PromiseHandler<Integer> handler) {
+                handlers[0] = handler;
+            }
+        }, PromiseExecutors.immediate(), "multiSubscriberPromise");
+
+        final List<Integer> fired = new CopyOnWriteArrayList<>();
+        for(int i=0; i<100; i++){
+            final int index = i;
+            promise.then(new Function<Integer, Void>() {
+                @Override
+                public Void call(Integer integer) {
+                    fired.add(index);
+                    return null;
+                }
+            });
+        }
+        final List<List<Integer>> allResults = new CopyOnWriteArrayList<>();
+        Promise.all(PromiseExecutors.immediate(), promise).then(new Function<List<Integer>, Void>() {
+            @Override
+            public Void call(List<Integer> integers) {
+                allResults.add(integers);
+                return null;
+            }
+        });
+
+        handlers[0].resolve(100);
+        //已完成后再订阅,立即执行
+        promise.then(new Function<Integer, Void>() {
+            @Override
+            public Void call(Integer integer) {
+                fired.add(100);
+                return null;
+            }
+        });
+
+        assertEquals(101, fired.size());
+        for(int i=0; i<fired.size(); i++){
+            assertEquals(i, (long) fired.get(i));
+        }
+        assertEquals(1, allResults.size());
+        assertEquals(100, (long) allResults.get(0).get(0));
+    }
+
+    @Test
+    public void deepChainOnImmediate() throws Exception {
+        final PromiseHandler<Integer>[] handlers = new PromiseHandler[1];
+        Promise<Integer> promise = new Promise<>(new Action<PromiseHandler<Integer>>() {
+            @Override
+            public void call(PromiseHandler<Integer> handler) {
+                handlers[0] = handler;
+            }
+        }, PromiseExecutors.immediate());
+
+        Function<Integer, Integer> increment = new Function<Integer, Integer>() {
+            @Override
+            public Integer call(Integer integer) {
+                return integer + 1;
+            }
+        };
+        Promise<Integer> newPromise = promise;
+        for(int i=0; i<100000; i++){
+            newPromise = newPromise.then(increment);
+        }
+        final int[] result = new int[1];
+        newPromise.then(new Function<Integer, Void>() {
+            @Override
+            public Void call(Integer integer) {
+                result[0] = integer;
+                return null;
+            }
+        });
+
+        //链上10万个续体在蹦床上循环执行,不会栈溢出
+        handlers[0].resolve(0);
+        assertEquals(100000, result[0]);
+
+        //在已完成的promise上继续构建长链,同样不递归
+        for(int i=0; i<100000; i++){
+            newPromise = newPromise.then(increment);
+        }
+        newPromise.then(new Function<Integer, Void>() {
+            @Override
+            public Void call(Integer integer) {
+                result[0] = integer;
+                return null;
+            }
+        });
+        assertEquals(200000, result[0]);
+    }
+
+    @Test
+    public void chainDispatchCount() throws Exception {
+        final AtomicInteger submissions = new AtomicInteger();
+        final ExecutorService service = Executors.newSingleThreadExecutor();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                submissions.incrementAndGet();
+                service.execute(command);
+            }
+        };
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        Promise<Integer> promise = Promise.resolve(0, executor, "chainDispatchCount");
+        for(int i=0; i<10; i++){
+            promise = promise.then(new Function<Integer, Integer>() {
+                @Override
+                public Integer call(Integer integer) {
+                    return integer + 1;
+                }
+            });
+        }
+        promise.then(new Function<Integer, Void>() {
+            @Override
+            public Void call(Integer integer) {
+                assertEquals(10, (long) integer);
+                latch.countDown();
+                return null;
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        service.shutdown();
+
+        //原来每一级都要派发,现在同一executor上的续体就地执行
+        assertTrue("submissions: " + submissions.get(), submissions.get() <= 12);
+    }
+
+    @Test
+    public void timerPromise() throws Exception {
+        final int count = 10000;
+        final CountDownLatch latch = new CountDownLatch(count);
+        int threadsBefore = Thread.activeCount();
+        for(int i=0; i<count; i++){
+            Promise.timer(i, i % 100, TimeUnit.MILLISECONDS, PromiseExecutors.immediate())
+                    .then(new Function<Integer, Void>() {
+                        @Override
+                        public Void call(Integer integer) {
+                            latch.countDown();
+                            return null;
+                        }
+                    });
+        }
+        //所有定时共用一个时间轮线程,回调转到computation(),不会为每个定时创建线程
+        assertTrue(Thread.activeCount() - threadsBefore < count / 100);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void slowTimerContinuation() throws Exception {
+        //默认executor就地执行,慢回调转到computation()上执行,不会推迟其他定时。
+        //computation()至少要有两个线程,单核机器上默认只有一个
+        assertTrue(PromiseExecutors.shutdown(5, TimeUnit.SECONDS));
+        PromiseExecutors.setComputationPoolSize(2);
+
+        final CountDownLatch slowStarted = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Promise.delay(10).then(new Function<Object, Void>() {
+            @Override
+            public Void call(Object o) {
+                slowStarted.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }
+        });
+        assertTrue(slowStarted.await(5, TimeUnit.SECONDS));
+
+        final CountDownLatch fast = new CountDownLatch(1);
+        final List<String> threads = new CopyOnWriteArrayList<>();
+        Promise.delay(10).then(new Function<Object, Void>() {
+            @Override
+            public Void call(Object o) {
+                threads.add(Thread.currentThread().getName());
+                fast.countDown();
+                return null;
+            }
+        });
+        try {
+            assertTrue(fast.await(1, TimeUnit.SECONDS));
+            assertTrue(!threads.get(0).equals("promise-timer"));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void brokeCancelsTimer() throws Exception {
+        final AtomicInteger fired = new AtomicInteger();
+        Promise<Object> promise = Promise.delay(100, PromiseExecutors.immediate());
+        promise.then(new Function<Object, Void>() {
+            @Override
+            public Void call(Object o) {
+                fired.incrementAndGet();
+                return null;
+            }
+        });
+        promise.broke();
+        Thread.sleep(300);
+        assertEquals(0, fired.get());
+    }
+
+    @Test
+    public void hashedWheelTimer() throws Exception {
+        final int count = 200000;
+        final AtomicInteger fired = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(count / 2);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                fired.incrementAndGet();
+                latch.countDown();
+            }
+        };
+
+        HashedWheelTimer.Timeout[] timeouts = new HashedWheelTimer.Timeout[count];
+        for(int i=0; i<count; i++){
+            //最短延迟留足余量,机器繁忙时注册完20万个定时之前不会有定时到期,取消一定成功
+            timeouts[i] = HashedWheelTimer.shared().newTimeout(task, 1000 + i % 200, TimeUnit.MILLISECONDS);
+        }
+        //取消一半
+        for(int i=0; i<count; i+=2){
+            assertTrue(timeouts[i].cancel());
+        }
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(count / 2, fired.get());
+        for(int i=0; i<count; i++){
+            assertEquals(i % 2 == 1, timeouts[i].isExpired());
+        }
+    }
+
+    @Test
+    public void allPromiseInOrder() throws Exception {
+        final int count = 10000;
+        final List<PromiseHandler<Integer>> handlers = new ArrayList<>(count);
+        List<Promise<Integer>> promises = new ArrayList<>(count);
+        for(int i=0; i<count; i++){
+            promises.add(new Promise<>(new Action<PromiseHandler<Integer>>() {
+                @Override
+                public void call(PromiseHandler<Integer> handler) {
+                    handlers.add(handler);
+                }
+            }, PromiseExecutors.immediate()));
+        }
+
+        final List<List<Integer>> results = new CopyOnWriteArrayList<>();
+        Promise.all(PromiseExecutors.immediate(), promises).then(new Function<List<Integer>, Void>() {
+            @Override
+            public Void call(List<Integer> integers) {
+                results.add(integers);
+                return null;
+            }
+        });
+
+        //倒序完成,结果仍按参数顺序排列
+        for(int i=count-1; i>=0; i--){
+            handlers.get(i).resolve(i);
+        }
+        assertEquals(1, results.size());
+        assertEquals(count, results.get(0).size());
+        for(int i=0; i<count; i++){
+            assertEquals(i, (long) results.get(0).get(i));
+        }
+    }
+
+    @Test
+    public void allPromiseRejected() throws Exception {
+        final List<PromiseHandler<Integer>> handlers = new ArrayList<>();
+        List<Promise<Integer>> promises = new ArrayList<>();
+        for(int i=0; i<3; i++){
+            promises.add(new Promise<>(new Action<PromiseHandler<Integer>>() {
+                @Override
+                public void call(PromiseHandler<Integer> handler) {
+                    handlers.add(handler);
+                }
+            }, PromiseExecutors.immediate()));
+        }
+
+        final List<Object> results = new CopyOnWriteArrayList<>();
+        Promise.all(PromiseExecutors.immediate(), promises).then(new Function<List<Integer>, Void>() {
+            @Override
+            public Void call(List<Integer> integers) {
+                results.add(integers);
+                return null;
+            }
+        }, new Action<Throwable>() {
+            @Override
+            public void call(Throwable throwable) {
+                results.add(throwable.getMessage());
+            }
+        });
+
+        handlers.get(0).resolve(0);
+        handlers.get(1).reject(new Exception("rejected"));
+        assertEquals(1, results.size());
+        assertEquals("rejected", results.get(0));
+        //第一个失败后直接结束,后续结果忽略
+        handlers.get(2).resolve(2);
+        assertEquals(1, results.size());
+    }
+
+    private List<Promise<Integer>> createPendingPromises(int count, final List<PromiseHandler<Integer>> handlers){
+        List<Promise<Integer>> promises = new ArrayList<>(count);
+        for(int i=0; i<count; i++){
+            promises.add(new Promise<>(new Action<PromiseHandler<Integer>>() {
+                @Override
+                public void call(PromiseHandler<Integer> handler) {
+                    handlers.add(handler);
+                }
+            }, PromiseExecutors.immediate()));
+        }
+        return promises;
+    }
+
+    @Test
+    public void allSettledPromise() throws Exception {
+        List<PromiseHandler<Integer>> handlers = new ArrayList<>();
+        List<Promise<Integer>> promises = createPendingPromises(3, handlers);
+
+        final List<List<PromiseResult<Integer>>> results = new CopyOnWriteArrayList<>();
+        Promise.allSettled(PromiseExecutors.immediate(), promises).then(new Function<List<PromiseResult<Integer>>, Void>() {
+            @Override
+            public Void call(List<PromiseResult<Integer>> outcomes) {
+                results.add(outcomes);
+                return null;
+            }
+        });
+
+        handlers.get(2).resolve(2);
+        handlers.get(0).reject(new Exception("rejected"));
+        assertEquals(0, results.size());
+        handlers.get(1).resolve(1);
+
+        assertEquals(1, results.size());
+        List<PromiseResult<Integer>> outcomes = results.get(0);
+        assertTrue(outcomes.get(0).isRejected());
+        assertEquals("rejected", outcomes.get(0).getThrowable().getMessage());
+        assertEquals(1, (long) outcomes.get(1).getValue());
+        assertEquals(2, (long) outcomes.get(2).getValue());
+    }
+
+    @Test
+    public void anyPromise() throws Exception {
+        List<PromiseHandler<Integer>> handlers = new ArrayList<>();
+        List<Promise<Integer>> promises = createPendingPromises(3, handlers);
+
+        final List<Integer> results = new CopyOnWriteArrayList<>();
+        Promise.any(PromiseExecutors.immediate(), promises).then(new Function<Integer, Void>() {
+            @Override
+            public Void call(Integer integer) {
+                results.add(integer);
+                return null;
+            }
+        });
+        final AtomicInteger loserFired = new AtomicInteger();
+        promises.get(2).then(new Function<Integer, Void>() {
+            @Override
+            public Void call(Integer integer) {
+                loserFired.incrementAndGet();
+                return null;
+            }
+        });
+
+        handlers.get(0).reject(new Exception("rejected"));
+        handlers.get(1).resolve(1);
+        assertEquals(1, results.size());
+        assertEquals(1, (long) results.get(0));
+
+        //已经得到结果,其余promise被毁约;但promises[2]上还有别的订阅分支,不毁约
+        assertTrue(!promises.get(2).isBroken());
+        handlers.get(2).resolve(2);
+        assertEquals(1, loserFired.get());
+    }
+
+    @Test
+    public void anyPromiseKeepsSiblingBranches() throws Exception {
+        List<PromiseHandler<Integer>> handlers = new ArrayList<>();
+        List<Promise<Integer>> roots = createPendingPromises(3, handlers);
+        Function<Integer, Integer> identity = new Function<Integer, Integer>() {
+            @Override
+            public Integer call(Integer integer) {
+                return integer;
+            }
+        };
+
+        //loser是上游shared的一个分支,sibling是同一个上游的另一个分支
+        Promise<Integer> loser = roots.get(0).then(identity);
+        final List<Integer> siblingResults = new CopyOnWriteArrayList<>();
+        roots.get(0).then(identity).then(new Function<Integer, Void>() {
+            @Override
+            public Void call(Integer integer) {
+                siblingResults.add(integer);
+                return null;
+            }
+        });
+        //exclusive是一条没有分支的链,可以安全毁约
+        Promise<Integer> exclusive = roots.get(1).then(identity);
+
+        Promise<Integer> any = Promise.any(PromiseExecutors.immediate(), Arrays.asList(loser, exclusive, roots.get(2)));
+        handlers.get(2).resolve(2);
+        assertEquals(2, (long) any.await(1, TimeUnit.SECONDS));
+
+        assertTrue(!loser.isBroken());
+        assertTrue(exclusive.isBroken());
+        handlers.get(0).resolve(10);
+        assertEquals(Arrays.asList(10), siblingResults);
+    }
+
+    @Test
+    public void anyPromiseAllRejected() throws Exception {
+        List<PromiseHandler<Integer>> handlers = new ArrayList<>();
+        List<Promise<Integer>> promises = createPendingPromises(3, handlers);
+
+        final List<Throwable> errors = new CopyOnWriteArrayList<>();
+        Promise.any(PromiseExecutors.immediate(), promises).exception(new Action<Throwable>() {
+            @Override
+            public void call(Throwable throwable) {
+                errors.add(throwable);
+            }
+        });
+
+        for(int i=2; i>=0; i--){
+            handlers.get(i).reject(new Exception("rejected" + i));
+        }
+        assertEquals(1, errors.size());
+        List<Throwable> exceptions = ((AggregateException) errors.get(0)).getExceptions();
+        assertEquals(3, exceptions.size());
+        for(int i=0; i<3; i++){
+            assertEquals("rejected" + i, exceptions.get(i).getMessage());
+        }
+    }
+
+    @Test
+    public void somePromise() throws Exception {
+        List<PromiseHandler<Integer>> handlers = new ArrayList<>();
+        List<Promise<Integer>> promises = createPendingPromises(5, handlers);
+
+        final List<List<Integer>> results = new CopyOnWriteArrayList<>();
+        Promise.some(PromiseExecutors.immediate(), 2, promises).then(new Function<List<Integer>, Void>() {
+            @Override
+            public Void call(List<Integer> integers) {
+                results.add(integers);
+                return null;
+            }
+        });
+
+        handlers.get(4).resolve(4);
+        handlers.get(0).reject(new Exception("rejected"));
+        handlers.get(2).resolve(2);
+        assertEquals(1, results.size());
+        assertEquals(Arrays.asList(4, 2), results.get(0));
+
+        List<PromiseHandler<Integer>> failedHandlers = new ArrayList<>();
+        List<Promise<Integer>> failedPromises = createPendingPromises(3, failedHandlers);
+        final List<Throwable> errors = new CopyOnWriteArrayList<>();
+        Promise.some(PromiseExecutors.immediate(), 2, failedPromises).exception(new Action<Throwable>() {
+            @Override
+            public void call(Throwable throwable) {
+                errors.add(throwable);
+            }
+        });
+        failedHandlers.get(0).reject(new Exception("rejected0"));
+        assertEquals(0, errors.size());
+        //两个失败后不可能再有两个成功
+        failedHandlers.get(1).reject(new Exception("rejected1"));
+        assertEquals(1, errors.size());
+        assertEquals(2, ((AggregateException) errors.get(0)).getExceptions().size());
+    }
+
+    @Test
+    public void mapWithConcurrency() throws Exception {
+        final int count = 1000;
+        final int concurrency = 8;
+        List<Integer> items = new ArrayList<>(count);
+        for(int i=0; i<count; i++){
+            items.add(i);
+        }
+
+        final ExecutorService service = Executors.newFixedThreadPool(4);
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<List<Integer>> results = new CopyOnWriteArrayList<>();
+
+        Promise.map(items, new Function<Integer, Promise<Integer>>() {
+            @Override
+            public Promise<Integer> call(final Integer integer) {
+                int current = inFlight.incrementAndGet();
+                while(true){
+                    int max = maxInFlight.get();
+                    if(current <= max || maxInFlight.compareAndSet(max, current)) break;
+                }
+                return new Promise<>(new Action<PromiseHandler<Integer>>() {
+                    @Override
+                    public void call(final PromiseHandler<Integer> handler) {
+                        service.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                inFlight.decrementAndGet();
+                                handler.resolve(integer * 2);
+                            }
+                        });
+                    }
+                }, PromiseExecutors.immediate());
+            }
+        }, concurrency, PromiseExecutors.immediate()).then(new Function<List<Integer>, Void>() {
+            @Override
+            public Void call(List<Integer> integers) {
+                results.add(integers);
+                latch.countDown();
+                return null;
+            }
+        });
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        service.shutdown();
+        assertTrue("max in flight: " + maxInFlight.get(), maxInFlight.get() <= concurrency);
+        assertEquals(count, results.get(0).size());
+        for(int i=0; i<count; i++){
+            assertEquals(i * 2, (long) results.get(0).get(i));
+        }
+    }
+
+    @Test
+    public void awaitPromise() throws Exception {
+        Promise<Integer> promise = Promise.timer(100, 50, TimeUnit.MILLISECONDS, PromiseExecutors.immediate());
+        assertEquals(100, (long) promise.await(5, TimeUnit.SECONDS));
+        //已完成时直接返回
+        assertEquals(100, (long) promise.await());
+
+        Promise<Integer> rejected = Promise.reject("rejected", PromiseExecutors.immediate(), "awaitPromise");
+        try {
+            rejected.await(1, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e){
+            assertEquals("rejected", e.getCause().getMessage());
+        }
+
+        Promise<Integer> pending = Promise.timer(100, 5, TimeUnit.SECONDS, PromiseExecutors.immediate());
+        long start = System.nanoTime();
+        try {
+            pending.await(50, TimeUnit.MILLISECONDS);
+            fail();
+        } catch (TimeoutException e){
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        }
+        pending.broke();
+    }
+
+    @Test
+    public void awaitInsideContinuation() throws Exception {
+        //在immediate的续体中等待,被等待的promise的结果排在本线程蹦床的队列里
+        final List<Integer> results = new CopyOnWriteArrayList<>();
+        Promise<Integer> outer = Promise.resolve(1, PromiseExecutors.immediate(), null).then(new Function<Integer, Integer>() {
+            @Override
+            public Integer call(Integer integer) {
+                try {
+                    return integer + Promise.resolve(7, PromiseExecutors.immediate(), null).await(500, TimeUnit.MILLISECONDS);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        outer.then(new Function<Integer, Void>() {
+            @Override
+            public Void call(Integer integer) {
+                results.add(integer);
+                return null;
+            }
+        });
+        assertEquals(Arrays.asList(8), results);
+    }
+
+    @Test
+    public void timeoutPromise() throws Exception {
+        Promise<Integer> slow = Promise.timer(100, 500, TimeUnit.MILLISECONDS, PromiseExecutors.immediate());
+        final AtomicInteger upstreamFired = new AtomicInteger();
+        slow.then(new Function<Integer, Void>() {
+            @Override
+            public Void call(Integer integer) {
+                upstreamFired.incrementAndGet();
+                return null;
+            }
+        });
+
+        try {
+            slow.timeout(50, TimeUnit.MILLISECONDS).await(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e){
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        //超时后上游被毁约,不再执行
+        Thread.sleep(600);
+        assertEquals(0, upstreamFired.get());
+
+        Promise<Integer> fast = Promise.timer(100, 10, TimeUnit.MILLISECONDS, PromiseExecutors.immediate());
+        assertEquals(100, (long) fast.timeout(5, TimeUnit.SECONDS).await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void brokePropagatesThroughCombinators() throws Exception {
+        List<PromiseHandler<Integer>> handlers = new ArrayList<>();
+        List<Promise<Integer>> promises = createPendingPromises(3, handlers);
+        Promise<List<Integer>> all = Promise.all(PromiseExecutors.immediate(), promises);
+
+        //组合出的promise被毁约,参数promise也被毁约
+        all.broke();
+        for(Promise<Integer> promise: promises){
+            assertTrue(promise.isBroken());
+        }
+
+        //参数promise被毁约,组合出的promise也被毁约
+        List<Promise<Integer>> others = createPendingPromises(3, new ArrayList<PromiseHandler<Integer>>());
+        Promise<Integer> race = Promise.race(PromiseExecutors.immediate(), others.get(0), others.get(1), others.get(2));
+        others.get(1).broke();
+        assertTrue(race.isBroken());
+
+        //allSettled中被毁约的参数promise结果为CancellationException
+        List<PromiseHandler<Integer>> settledHandlers = new ArrayList<>();
+        List<Promise<Integer>> settled = createPendingPromises(2, settledHandlers);
+        final List<List<PromiseResult<Integer>>> results = new CopyOnWriteArrayList<>();
+        Promise.allSettled(PromiseExecutors.immediate(), settled).then(new Function<List<PromiseResult<Integer>>, Void>() {
+            @Override
+            public Void call(List<PromiseResult<Integer>> outcomes) {
+                results.add(outcomes);
+                return null;
+            }
+        });
+        settled.get(0).broke();
+        settledHandlers.get(1).resolve(1);
+        assertEquals(1, results.size());
+        assertTrue(results.get(0).get(0).getThrowable() instanceof CancellationException);
+        assertEquals(1, (long) results.get(0).get(1).getValue());
+    }
+
+    @Test
+    public void brokeAfterSettleCountedOnce() throws Exception {
+        //allSettled: 已经resolved的参数promise再被毁约,不再计数
+        List<PromiseHandler<Integer>> settledHandlers = new ArrayList<>();
+        List<Promise<Integer>> settled = createPendingPromises(2, settledHandlers);
+        final List<List<PromiseResult<Integer>>> results = new CopyOnWriteArrayList<>();
+        Promise.allSettled(PromiseExecutors.immediate(), settled).then(new Function<List<PromiseResult<Integer>>, Void>() {
+            @Override
+            public Void call(List<PromiseResult<Integer>> outcomes) {
+                results.add(outcomes);
+                return null;
+            }
+        });
+        settledHandlers.get(0).resolve(0);
+        settled.get(0).broke();
+        assertEquals(0, results.size());
+        settledHandlers.get(1).resolve(1);
+        assertEquals(1, results.size());
+        assertEquals(0, (long) results.get(0).get(0).getValue());
+        assertEquals(1, (long) results.get(0).get(1).getValue());
+
+        //any: 已经rejected的参数promise再被毁约,其余参数promise仍然可以成功
+        List<PromiseHandler<Integer>> anyHandlers = new ArrayList<>();
+        List<Promise<Integer>> anyPromises = createPendingPromises(2, anyHandlers);
+        final List<Integer> values = new CopyOnWriteArrayList<>();
+        final List<Throwable> errors = new CopyOnWriteArrayList<>();
+        Promise.any(PromiseExecutors.immediate(), anyPromises).then(new Function<Integer, Void>() {
+            @Override
+            public Void call(Integer integer) {
+                values.add(integer);
+                return null;
+            }
+        }, new Action<Throwable>() {
+            @Override
+            public void call(Throwable throwable) {
+                errors.add(throwable);
+            }
+        });
+        anyHandlers.get(0).reject(new Exception("rejected"));
+        anyPromises.get(0).broke();
+        assertEquals(0, errors.size());
+        anyHandlers.get(1).resolve(1);
+        assertEquals(Arrays.asList(1), values);
+        assertEquals(0, errors.size());
+    }
+
+    @Test
+    public void brokeInterruptsRunningTask() throws Exception {
+        ExecutorService service = Executors.newSingleThreadExecutor();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        Promise<Integer> promise = Promise.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                started.countDown();
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                    throw e;
+                }
+                return 100;
+            }
+        }, service, PromiseExecutors.immediate());
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        //在另一个线程毁约,正在执行的任务被中断
+        promise.then(new Function<Integer, Integer>() {
+            @Override
+            public Integer call(Integer integer) {
+                return integer;
+            }
+        }).broke();
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        service.shutdown();
+    }
+
+    @Test
+    public void supplyAsyncPromise() throws Exception {
+        final Promise<Integer> timer = Promise.timer(100, 20, TimeUnit.MILLISECONDS, PromiseExecutors.immediate());
+        List<Promise<Integer>> promises = new ArrayList<>();
+        for(int i=0; i<100; i++){
+            final int value = i;
+            //阻塞任务在virtual()上执行,等待另一个promise
+            promises.add(Promise.supplyAsync(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return timer.await(5, TimeUnit.SECONDS) + value;
+                }
+            }, PromiseExecutors.immediate()));
+        }
+
+        List<Integer> results = Promise.all(PromiseExecutors.immediate(), promises).await(5, TimeUnit.SECONDS);
+        for(int i=0; i<100; i++){
+            assertEquals(100 + i, (long) results.get(i));
+        }
+    }
+
+    @Test
+    public void managedExecutors() throws Exception {
+        //每次返回同一个executor
+        assertSame(PromiseExecutors.io(), PromiseExecutors.io());
+        assertSame(PromiseExecutors.computation(), PromiseExecutors.computation());
+        assertSame(PromiseExecutors.newThread(), PromiseExecutors.newThread());
+        assertSame(PromiseExecutors.immediate(), PromiseExecutors.immediate());
+        assertEquals(-1, PromiseExecutors.getQueueSize(PromiseExecutors.immediate()));
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        Executor newThread = PromiseExecutors.newThread();
+        for(int i=0; i<3; i++){
+            newThread.execute(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(1, PromiseExecutors.getActiveCount(newThread));
+        assertEquals(2, PromiseExecutors.getQueueSize(newThread));
+
+        //线程池已经启动,不能再修改配置
+        try {
+            PromiseExecutors.setThreadFactory(null);
+            fail();
+        } catch (IllegalStateException e){
+            assertTrue(true);
+        }
+
+        release.countDown();
+        assertTrue(PromiseExecutors.shutdown(5, TimeUnit.SECONDS));
+
+        //shutdown之后可以修改配置,再使用时重新创建
+        PromiseExecutors.setComputationPoolSize(2);
+        assertEquals(100, (long) Promise.resolve(100, PromiseExecutors.computation(), null)
+                .then(new Function<Integer, Integer>() {
+                    @Override
+                    public Integer call(Integer integer) {
+                        assertTrue(Thread.currentThread().getName().startsWith("promise-computation-"));
+                        return integer;
+                    }
+                }).await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void boundedIoPool() throws Exception {
+        assertTrue(PromiseExecutors.shutdown(5, TimeUnit.SECONDS));
+        PromiseExecutors.setIoPoolSize(2);
+        try {
+            //线程都在忙时多出的任务排队等待,不会被拒绝
+            final CountDownLatch release = new CountDownLatch(1);
+            final CountDownLatch started = new CountDownLatch(2);
+            final CountDownLatch finished = new CountDownLatch(5);
+            Executor io = PromiseExecutors.io();
+            for(int i=0; i<5; i++){
+                io.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            e.printStackTrace();
+                        }
+                        finished.countDown();
+                    }
+                });
+            }
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            assertEquals(2, PromiseExecutors.getActiveCount(io));
+            assertEquals(3, PromiseExecutors.getQueueSize(io));
+
+            release.countDown();
+            assertTrue(finished.await(5, TimeUnit.SECONDS));
+        } finally {
+            assertTrue(PromiseExecutors.shutdown(5, TimeUnit.SECONDS));
+            PromiseExecutors.setIoPoolSize(Integer.MAX_VALUE);
+        }
+    }
+
+    @Test
+    public void batchingExecutor() throws Exception {
+        //模拟消息循环,记录投递的消息数
+        final AtomicInteger posts = new AtomicInteger();
+        final ExecutorService loop = Executors.newSingleThreadExecutor();
+        Executor looper = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                posts.incrementAndGet();
+                loop.execute(command);
+            }
+        };
+
+        //消息循环忙时产生的100个续体合并成一条消息,按提交顺序执行
+        final CountDownLatch release = new CountDownLatch(1);
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        //预算足够大,避免冷启动时超时拆成多条消息
+        Executor batching = PromiseExecutors.batching(looper, 1, TimeUnit.MINUTES);
+        final List<Integer> order = new CopyOnWriteArrayList<>();
+        List<Promise<Integer>> promises = new ArrayList<>();
+        for(int i=0; i<100; i++){
+            final int index = i;
+            promises.add(Promise.resolve(i, batching, null).then(new Function<Integer, Integer>() {
+                @Override
+                public Integer call(Integer integer) {
+                    order.add(index);
+                    return integer;
+                }
+            }));
+        }
+        Promise<List<Integer>> all = Promise.all(PromiseExecutors.immediate(), promises);
+        release.countDown();
+        assertEquals(100, all.await(5, TimeUnit.SECONDS).size());
+        assertEquals(1, posts.get());
+        for(int i=0; i<100; i++){
+            assertEquals(i, (int) order.get(i));
+        }
+
+        //时间预算用完后剩余任务重新投递
+        posts.set(0);
+        Executor budgeted = PromiseExecutors.batching(looper, 0, TimeUnit.MILLISECONDS);
+        final CountDownLatch done = new CountDownLatch(3);
+        final CountDownLatch hold = new CountDownLatch(1);
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    hold.await();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        for(int i=0; i<3; i++){
+            budgeted.execute(new Runnable() {
+                @Override
+                public void run() {
+                    done.countDown();
+                }
+            });
+        }
+        hold.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(3, posts.get());
+        loop.shutdown();
+    }
+
+    @Test
+    public void keyedExecutor() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        KeyedExecutor<Integer> keyed = PromiseExecutors.keyed(pool);
+        final int keys = 1000;
+        final int perKey = 20;
+        final int[] last = new int[keys];
+        final AtomicInteger outOfOrder = new AtomicInteger();
+        final AtomicInteger overlapped = new AtomicInteger();
+        final AtomicInteger[] running = new AtomicInteger[keys];
+        final CountDownLatch done = new CountDownLatch(keys * perKey);
+        for(int k=0; k<keys; k++){
+            running[k] = new AtomicInteger();
+        }
+
+        //交替向不同key提交,每个key内部必须按顺序且不重叠地执行
+        for(int i=1; i<=perKey; i++){
+            for(int k=0; k<keys; k++){
+                final int key = k;
+                final int seq = i;
+                keyed.get(key).execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(running[key].incrementAndGet() != 1) overlapped.incrementAndGet();
+                        if(last[key] != seq - 1) outOfOrder.incrementAndGet();
+                        last[key] = seq;
+                        running[key].decrementAndGet();
+                        done.countDown();
+                    }
+                });
+            }
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(0, outOfOrder.get());
+        assertEquals(0, overlapped.get());
+
+        //排空的key从表中移除
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(0, keyed.size());
+
+        //同一key上的promise链按提交顺序执行
+        ExecutorService pool2 = Executors.newFixedThreadPool(4);
+        KeyedExecutor<String> users = PromiseExecutors.keyed(pool2);
+        final List<Integer> order = new CopyOnWriteArrayList<>();
+        List<Promise<Integer>> promises = new ArrayList<>();
+        for(int i=0; i<50; i++){
+            final int index = i;
+            promises.add(Promise.resolve(i, users.get("user-1"), null).then(new Function<Integer, Integer>() {
+                @Override
+                public Integer call(Integer integer) {
+                    order.add(index);
+                    return integer;
+                }
+            }));
+        }
+        Promise.all(PromiseExecutors.immediate(), promises).await(5, TimeUnit.SECONDS);
+        for(int i=0; i<50; i++){
+            assertEquals(i, (int) order.get(i));
+        }
+        pool2.shutdown();
+    }
+
+    @Test
+    public void priorityScheduler() throws Exception {
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        PriorityScheduler scheduler = PromiseExecutors.prioritized(single, 100, 200, TimeUnit.MILLISECONDS);
+        final CountDownLatch release = new CountDownLatch(1);
+        single.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+
+        //线程忙时先提交低优先级,再提交高优先级,高优先级先执行,then回调继承优先级
+        final List<String> order = new CopyOnWriteArrayList<>();
+        List<Promise<String>> promises = new ArrayList<>();
+        String[] names = {"low", "normal", "high"};
+        int[] priorities = {PriorityScheduler.PRIORITY_LOW, PriorityScheduler.PRIORITY_NORMAL, PriorityScheduler.PRIORITY_HIGH};
+        for(int i=0; i<3; i++){
+            promises.add(Promise.resolve(names[i], scheduler.priority(priorities[i]), null).then(new Function<String, String>() {
+                @Override
+                public String call(String s) {
+                    order.add(s);
+                    return s;
+                }
+            }));
+        }
+        Promise<List<String>> all = Promise.all(PromiseExecutors.immediate(), promises);
+        release.countDown();
+        all.await(5, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList("high", "normal", "low"), order);
+        assertEquals(0, scheduler.getQueueSize());
+        assertTrue(scheduler.getWaitCount(PriorityScheduler.PRIORITY_LOW) >= 1);
+        assertTrue(scheduler.getMaxWait(PriorityScheduler.PRIORITY_LOW, TimeUnit.NANOSECONDS) > 0);
+
+        //等待超过预算的低优先级任务排在新提交的高优先级任务之前
+        order.clear();
+        final CountDownLatch hold = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+        single.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    hold.await();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        scheduler.priority(PriorityScheduler.PRIORITY_LOW).execute(new Runnable() {
+            @Override
+            public void run() {
+                order.add("low");
+                done.countDown();
+            }
+        });
+        Thread.sleep(300);
+        scheduler.priority(PriorityScheduler.PRIORITY_HIGH).execute(new Runnable() {
+            @Override
+            public void run() {
+                order.add("high");
+                done.countDown();
+            }
+        });
+        hold.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("low", "high"), order);
+        single.shutdown();
+    }
+
+    @Test
+    public void lazyPromise() throws Exception {
+        final AtomicInteger started = new AtomicInteger();
+        Promise<Integer> lazy = Promise.lazy(new Action<PromiseHandler<Integer>>() {
+            @Override
+            public void call(PromiseHandler<Integer> promiseHandler) {
+                started.incrementAndGet();
+                promiseHandler.resolve(10);
+            }
+        }, PromiseExecutors.immediate());
+
+        //then链保持惰性,没有订阅之前不执行
+        Promise<Integer> used = lazy.then(new Function<Integer, Integer>() {
+            @Override
+            public Integer call(Integer integer) {
+                return integer * 2;
+            }
+        });
+        Promise<Integer> unused = Promise.defer(new Callable<Promise<Integer>>() {
+            @Override
+            public Promise<Integer> call() throws Exception {
+                started.addAndGet(100);
+                return Promise.resolve(1, PromiseExecutors.immediate(), null);
+            }
+        }, PromiseExecutors.immediate()).then(new Function<Integer, Integer>() {
+            @Override
+            public Integer call(Integer integer) {
+                return integer;
+            }
+        });
+        assertEquals(0, started.get());
+
+        //等待时启动,多次订阅只执行一次
+        assertEquals(20, (long) used.await(5, TimeUnit.SECONDS));
+        assertEquals(10, (long) lazy.await(5, TimeUnit.SECONDS));
+        assertEquals(1, started.get());
+        assertTrue(unused.getState() == Promise.STATE_PENDING);
+
+        //defer在订阅时调用工厂,工厂的异常变成rejected
+        Promise<Integer> failed = Promise.defer(new Callable<Promise<Integer>>() {
+            @Override
+            public Promise<Integer> call() throws Exception {
+                throw new IllegalStateException("factory");
+            }
+        }, PromiseExecutors.immediate());
+        final AtomicInteger rejected = new AtomicInteger();
+        Promise<Integer> handled = failed.exception(new Action<Throwable>() {
+            @Override
+            public void call(Throwable throwable) {
+                if (throwable instanceof IllegalStateException) rejected.incrementAndGet();
+            }
+        });
+        //链的末端没有订阅者,保持惰性直到手动启动
+        assertEquals(0, rejected.get());
+        handled.start();
+        assertEquals(1, rejected.get());
+
+        assertEquals(1, (long) unused.await(5, TimeUnit.SECONDS));
+        assertEquals(101, started.get());
+    }
+
+    @Test
+    public void lazyPromiseDeepChain() throws Exception {
+        final AtomicInteger started = new AtomicInteger();
+        Promise<Integer> head = Promise.lazy(new Action<PromiseHandler<Integer>>() {
+            @Override
+            public void call(PromiseHandler<Integer> promiseHandler) {
+                started.incrementAndGet();
+                promiseHandler.resolve(0);
+            }
+        }, PromiseExecutors.immediate());
+
+        //很长的惰性链逐个启动,不会栈溢出
+        final int depth = 100000;
+        Promise<Integer> tail = head;
+        for(int i=0; i<depth; i++){
+            tail = tail.then(new Function<Integer, Integer>() {
+                @Override
+                public Integer call(Integer integer) {
+                    return integer + 1;
+                }
+            });
+        }
+
+        assertEquals(0, started.get());
+        assertEquals(depth, (long) tail.await(5, TimeUnit.SECONDS));
+        assertEquals(1, started.get());
+
+        //timeout保持惰性,启动时才开始计时
+        Promise<Integer> timed = Promise.lazy(new Action<PromiseHandler<Integer>>() {
+            @Override
+            public void call(PromiseHandler<Integer> promiseHandler) {
+                started.incrementAndGet();
+                promiseHandler.resolve(1);
+            }
+        }, PromiseExecutors.immediate()).timeout(1, TimeUnit.MILLISECONDS);
+        Thread.sleep(50);
+        assertTrue(timed.getState() == Promise.STATE_PENDING);
+        assertEquals(1, (long) timed.await(5, TimeUnit.SECONDS));
+        assertEquals(2, started.get());
+    }
+
+    @Test
+    public void promiseCache() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        final List<PromiseHandler<String>> pending = new CopyOnWriteArrayList<>();
+        PromiseCache<Integer, String> cache = new PromiseCache<>(new Function<Integer, Promise<String>>() {
+            @Override
+            public Promise<String> call(final Integer key) {
+                loads.incrementAndGet();
+                if (key < 0) {
+                    return Promise.reject("negative", PromiseExecutors.immediate(), null);
+                }
+                return new Promise<>(new Action<PromiseHandler<String>>() {
+                    @Override
+                    public void call(PromiseHandler<String> promiseHandler) {
+                        pending.add(promiseHandler);
+                    }
+                }, PromiseExecutors.immediate());
+            }
+        }, 100, 200, TimeUnit.MILLISECONDS);
+
+        //并发请求同一个key只加载一次
+        List<Promise<String>> promises = new ArrayList<>();
+        for(int i=0; i<10; i++){
+            promises.add(cache.get(1));
+        }
+        assertEquals(1, loads.get());
+        //调用者毁约不影响其他调用者
+        promises.get(0).broke();
+        pending.get(0).resolve("one");
+        for(int i=1; i<10; i++){
+            assertEquals("one", promises.get(i).await(5, TimeUnit.SECONDS));
+        }
+
+        //resolved的结果缓存到过期
+        assertEquals("one", cache.get(1).await(5, TimeUnit.SECONDS));
+        assertEquals(1, loads.get());
+        Thread.sleep(300);
+        assertTrue(cache.getIfPresent(1) == null);
+        cache.get(1);
+        assertEquals(2, loads.get());
+
+        //rejected的结果立即移除
+        try {
+            cache.get(-1).await(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(true);
+        }
+        assertTrue(cache.getIfPresent(-1) == null);
+        try {
+            cache.get(-1).await(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(true);
+        }
+        assertEquals(4, loads.get());
+
+        //超过容量时淘汰最久没有访问的key
+        PromiseCache<Integer, Integer> lru = new PromiseCache<>(new Function<Integer, Promise<Integer>>() {
+            @Override
+            public Promise<Integer> call(Integer key) {
+                return Promise.resolve(key, PromiseExecutors.immediate(), null);
+            }
+        }, 2, 0, TimeUnit.MILLISECONDS);
+        assertEquals(1, (long) lru.get(1).await(5, TimeUnit.SECONDS));
+        assertEquals(3, (long) lru.get(3).await(5, TimeUnit.SECONDS));
+        assertEquals(5, (long) lru.get(5).await(5, TimeUnit.SECONDS));
+        assertEquals(2, lru.size());
+        assertTrue(lru.getIfPresent(1) == null);
+        assertEquals(5, (long) lru.getIfPresent(5).await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void promiseBatcher() throws Exception {
+        final List<List<Integer>> calls = new CopyOnWriteArrayList<>();
+        PromiseBatcher<Integer, String> batcher = new PromiseBatcher<>(new Function<List<Integer>, Promise<Map<Integer, String>>>() {
+            @Override
+            public Promise<Map<Integer, String>> call(List<Integer> keys) {
+                calls.add(keys);
+                if (keys.contains(-1)) {
+                    return Promise.reject("batch failed", PromiseExecutors.immediate(), null);
+                }
+                Map<Integer, String> values = new HashMap<>();
+                for (Integer key : keys) {
+                    //不返回0的值
+                    if (key != 0) values.put(key, "v" + key);
+                }
+                return Promise.resolve(values, PromiseExecutors.immediate(), null);
+            }
+        }, 3, 50, TimeUnit.MILLISECONDS, PromiseExecutors.immediate());
+
+        //等待时间内的load合并成一次调用,重复的key只加载一次
+        Promise<String> a = batcher.load(1);
+        Promise<String> b = batcher.load(2);
+        Promise<String> c = batcher.load(1);
+        assertEquals("v1", a.await(5, TimeUnit.SECONDS));
+        assertEquals("v2", b.await(5, TimeUnit.SECONDS));
+        assertEquals("v1", c.await(5, TimeUnit.SECONDS));
+        assertEquals(1, calls.size());
+        assertEquals(Arrays.asList(1, 2), calls.get(0));
+
+        //达到最大批量立即发出,剩余的等待超时后发出
+        calls.clear();
+        List<Promise<String>> promises = new ArrayList<>();
+        for(int i=1; i<=7; i++){
+            promises.add(batcher.load(i));
+        }
+        assertEquals(2, calls.size());
+        assertEquals(7, Promise.all(PromiseExecutors.immediate(), promises).await(5, TimeUnit.SECONDS).size());
+        assertEquals(3, calls.size());
+        assertEquals(Arrays.asList(7), calls.get(2));
+
+        //缺少的key被拒绝,批量加载失败时整批拒绝
+        Promise<String> missing = batcher.load(0);
+        batcher.flush();
+        try {
+            missing.await(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof NoSuchElementException);
+        }
+        Promise<String> ok = batcher.load(5);
+        Promise<String> failed = batcher.load(-1);
+        batcher.flush();
+        for (Promise<String> promise : Arrays.asList(ok, failed)) {
+            try {
+                promise.await(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(true);
+            }
+        }
+    }
+
+    @Test
+    public void promiseBatcherWithoutWait() throws Exception {
+        final List<List<Integer>> calls = new CopyOnWriteArrayList<>();
+        PromiseBatcher<Integer, String> batcher = new PromiseBatcher<>(new Function<List<Integer>, Promise<Map<Integer, String>>>() {
+            @Override
+            public Promise<Map<Integer, String>> call(List<Integer> keys) {
+                calls.add(keys);
+                Map<Integer, String> values = new HashMap<>();
+                for (Integer key : keys) {
+                    values.put(key, "v" + key);
+                }
+                return Promise.resolve(values, PromiseExecutors.immediate(), null);
+            }
+        }, 10, 0, TimeUnit.MILLISECONDS, PromiseExecutors.immediate());
+
+        //executor就地执行时,批次在key加入之后才发出,不会以空批次调用batchLoader
+        assertEquals("v1", batcher.load(1).await(1, TimeUnit.SECONDS));
+        assertEquals("v2", batcher.load(2).await(1, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(Arrays.asList(1), Arrays.asList(2)), calls);
+    }
+
+    @Test
+    public void promiseBatcherDeferredLoader() throws Exception {
+        //batchLoader返回lazy promise时也要启动它
+        PromiseBatcher<Integer, String> batcher = new PromiseBatcher<>(new Function<List<Integer>, Promise<Map<Integer, String>>>() {
+            @Override
+            public Promise<Map<Integer, String>> call(final List<Integer> keys) {
+                return Promise.defer(new Callable<Promise<Map<Integer, String>>>() {
+                    @Override
+                    public Promise<Map<Integer, String>> call() {
+                        Map<Integer, String> values = new HashMap<>();
+                        for (Integer key : keys) {
+                            values.put(key, "v" + key);
+                        }
+                        return Promise.resolve(values, PromiseExecutors.immediate(), null);
+                    }
+                }, PromiseExecutors.immediate());
+            }
+        }, 10, 10, TimeUnit.MILLISECONDS, PromiseExecutors.immediate());
+
+        Promise<String> first = batcher.load(1);
+        Promise<String> second = batcher.load(2);
+        assertEquals("v1", first.await(1, TimeUnit.SECONDS));
+        assertEquals("v2", second.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void retryPromise() throws Exception {
+        //前两次失败,第三次成功
+        final AtomicInteger attempts = new AtomicInteger();
+        Supplier<Promise<Integer>> flaky = new Supplier<Promise<Integer>>() {
+            @Override
+            public Promise<Integer> call() {
+                int attempt = attempts.incrementAndGet();
+                if (attempt < 3) {
+                    return Promise.reject("attempt " + attempt, PromiseExecutors.immediate(), null);
+                }
+                return Promise.resolve(attempt, PromiseExecutors.immediate(), null);
+            }
+        };
+        RetryPolicy policy = new RetryPolicy(5, 10, 100, TimeUnit.MILLISECONDS).setJitter(0);
+        assertEquals(3, (long) Promise.retry(flaky, policy, PromiseExecutors.immediate()).await(5, TimeUnit.SECONDS));
+        assertEquals(3, attempts.get());
+
+        //用完尝试次数后以最后一次的异常rejected
+        final AtomicInteger failures = new AtomicInteger();
+        Supplier<Promise<Integer>> failing = new Supplier<Promise<Integer>>() {
+            @Override
+            public Promise<Integer> call() {
+                return Promise.reject("failure " + failures.incrementAndGet(), PromiseExecutors.immediate(), null);
+            }
+        };
+        try {
+            Promise.retry(failing, new RetryPolicy(3, 1, 1, TimeUnit.MILLISECONDS), PromiseExecutors.immediate())
+                    .await(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals("failure 3", e.getCause().getMessage());
+        }
+        assertEquals(3, failures.get());
+
+        //retryOn返回false时不重试
+        failures.set(0);
+        try {
+            Promise.retry(failing, new RetryPolicy(3, 1, 1, TimeUnit.MILLISECONDS).setRetryOn(new Function<Throwable, Boolean>() {
+                @Override
+                public Boolean call(Throwable throwable) {
+                    return false;
+                }
+            }), PromiseExecutors.immediate()).await(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals(1, failures.get());
+        }
+
+        //毁约取消等待中的重试
+        failures.set(0);
+        Promise<Integer> retrying = Promise.retry(failing, new RetryPolicy(5, 200, 200, TimeUnit.MILLISECONDS).setJitter(0),
+                PromiseExecutors.immediate());
+        assertEquals(1, failures.get());
+        retrying.broke();
+        Thread.sleep(400);
+        assertEquals(1, failures.get());
+    }
+
+    @Test
+    public void hedgePromise() throws Exception {
+        //第一次尝试很慢,对冲延迟后发起的备份先完成,慢的尝试被毁约
+        final List<Promise<Integer>> attempts = new CopyOnWriteArrayList<>();
+        Supplier<Promise<Integer>> slowFirst = new Supplier<Promise<Integer>>() {
+            @Override
+            public Promise<Integer> call() {
+                int index = attempts.size();
+                Promise<Integer> attempt = Promise.timer(index, index == 0 ? 1000 : 20, TimeUnit.MILLISECONDS,
+                        PromiseExecutors.immediate());
+                attempts.add(attempt);
+                return attempt;
+            }
+        };
+        assertEquals(1, (long) Promise.hedge(slowFirst, 50, TimeUnit.MILLISECONDS, 2, PromiseExecutors.immediate())
+                .await(5, TimeUnit.SECONDS));
+        assertEquals(2, attempts.size());
+        assertTrue(attempts.get(0).isBroken());
+
+        //在对冲延迟内完成时不发起备份
+        attempts.clear();
+        Supplier<Promise<Integer>> fast = new Supplier<Promise<Integer>>() {
+            @Override
+            public Promise<Integer> call() {
+                Promise<Integer> attempt = Promise.resolve(attempts.size(), PromiseExecutors.immediate(), null);
+                attempts.add(attempt);
+                return attempt;
+            }
+        };
+        LatencyTracker tracker = new LatencyTracker(8, 0.95, 50, TimeUnit.MILLISECONDS);
+        assertEquals(0, (long) Promise.hedge(fast, tracker, 2, PromiseExecutors.immediate(), null)
+                .await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(1, attempts.size());
+
+        //所有尝试都失败时rejected
+        final AtomicInteger failures = new AtomicInteger();
+        try {
+            Promise.hedge(new Supplier<Promise<Integer>>() {
+                @Override
+                public Promise<Integer> call() {
+                    return Promise.reject("failure " + failures.incrementAndGet(), PromiseExecutors.immediate(), null);
+                }
+            }, 1, TimeUnit.SECONDS, 2, PromiseExecutors.immediate()).await(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals("failure 3", e.getCause().getMessage());
+        }
+
+        //自适应延迟取记录的耗时百分位
+        for(int i=1; i<=8; i++){
+            tracker.record(i * 10, TimeUnit.MILLISECONDS);
+        }
+        assertEquals(80, tracker.getEstimate(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void circuitBreaker() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final boolean[] healthy = {false};
+        final boolean[] crash = {false};
+        PromiseCircuitBreaker breaker = new PromiseCircuitBreaker(0.5, 100, TimeUnit.MILLISECONDS)
+                .setMinimumCalls(4);
+        Function<Integer, Promise<Integer>> call = breaker.wrap(new Function<Integer, Promise<Integer>>() {
+            @Override
+            public Promise<Integer> call(Integer integer) {
+                calls.incrementAndGet();
+                if (crash[0]) {
+                    throw new Error("crash");
+                }
+                return healthy[0] ? Promise.resolve(integer, PromiseExecutors.immediate(), null)
+                        : Promise.<Integer>reject("down", PromiseExecutors.immediate(), null);
+            }
+        }, PromiseExecutors.immediate());
+
+        //失败率达到阈值后打开,之后的调用直接拒绝
+        for(int i=0; i<4; i++){
+            call.call(i);
+        }
+        assertEquals(PromiseCircuitBreaker.STATE_OPEN, breaker.getState());
+        try {
+            call.call(5).await(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        assertEquals(4, calls.get());
+
+        //半开时试探失败重新打开
+        Thread.sleep(150);
+        assertEquals(PromiseCircuitBreaker.STATE_HALF_OPEN, breaker.getState());
+        call.call(6);
+        assertEquals(5, calls.get());
+        assertEquals(PromiseCircuitBreaker.STATE_OPEN, breaker.getState());
+
+        //试探时抛出Error同样重新打开,并归还试探机会
+        Thread.sleep(150);
+        crash[0] = true;
+        try {
+            call.call(7);
+            fail();
+        } catch (Error e) {
+            assertEquals("crash", e.getMessage());
+        }
+        crash[0] = false;
+        assertEquals(PromiseCircuitBreaker.STATE_OPEN, breaker.getState());
+
+        //试探成功后关闭
+        Thread.sleep(150);
+        healthy[0] = true;
+        assertEquals(7, (long) call.call(7).await(5, TimeUnit.SECONDS));
+        assertEquals(PromiseCircuitBreaker.STATE_CLOSED, breaker.getState());
+        assertEquals(8, (long) call.call(8).await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void bulkhead() throws Exception {
+        final List<PromiseHandler<Integer>> pending = new CopyOnWriteArrayList<>();
+        PromiseBulkhead bulkhead = new PromiseBulkhead(2, 1);
+        Function<Integer, Promise<Integer>> call = bulkhead.wrap(new Function<Integer, Promise<Integer>>() {
+            @Override
+            public Promise<Integer> call(Integer integer) {
+                return new Promise<>(new Action<PromiseHandler<Integer>>() {
+                    @Override
+                    public void call(PromiseHandler<Integer> promiseHandler) {
+                        pending.add(promiseHandler);
+                    }
+                }, PromiseExecutors.immediate());
+            }
+        }, PromiseExecutors.immediate());
+
+        //两个进行中,一个排队,第四个被拒绝
+        call.call(1);
+        call.call(2);
+        Promise<Integer> queued = call.call(3);
+        Promise<Integer> rejected = call.call(4);
+        assertEquals(2, bulkhead.getInFlight());
+        assertEquals(1, bulkhead.getQueued());
+        assertEquals(2, pending.size());
+        try {
+            rejected.await(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+
+        //结束一个之后排队的调用开始执行
+        pending.get(0).resolve(1);
+        assertEquals(3, pending.size());
+        assertEquals(0, bulkhead.getQueued());
+        pending.get(2).resolve(3);
+        assertEquals(3, (long) queued.await(5, TimeUnit.SECONDS));
+
+        //毁约也会归还名额
+        pending.get(1).resolve(2);
+        Promise<Integer> broken = call.call(5);
+        broken.broke();
+        assertEquals(0, bulkhead.getInFlight());
+
+        //排队中毁约的调用移出队列,不再占用排队名额,也不会执行
+        int started = pending.size();
+        call.call(6);
+        call.call(7);
+        Promise<Integer> abandoned = call.call(8);
+        assertEquals(1, bulkhead.getQueued());
+        abandoned.broke();
+        assertEquals(0, bulkhead.getQueued());
+        Promise<Integer> next = call.call(9);
+        assertEquals(1, bulkhead.getQueued());
+        pending.get(started).resolve(6);
+        assertEquals(0, bulkhead.getQueued());
+        assertEquals(started + 3, pending.size());
+        pending.get(started + 2).resolve(9);
+        assertEquals(9, (long) next.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void asyncSemaphore() throws Exception {
+        AsyncSemaphore semaphore = new AsyncSemaphore(2);
+        Permit first = semaphore.acquire(PromiseExecutors.immediate()).await(5, TimeUnit.SECONDS);
+        Permit second = semaphore.acquire(PromiseExecutors.immediate()).await(5, TimeUnit.SECONDS);
+        assertTrue(semaphore.tryAcquire() == null);
+
+        //没有许可时排队,不占用线程;毁约的等待者被跳过
+        Promise<Permit> abandoned = semaphore.acquire(PromiseExecutors.immediate());
+        Promise<Permit> waiting = semaphore.acquire(PromiseExecutors.immediate());
+        assertEquals(2, semaphore.getQueueLength());
+        abandoned.broke();
+        first.release();
+        //重复归还只算一次
+        first.release();
+        Permit third = waiting.await(5, TimeUnit.SECONDS);
+        assertEquals(0, semaphore.getAvailablePermits());
+        assertEquals(0, semaphore.getQueueLength());
+        second.release();
+        third.release();
+        assertEquals(2, semaphore.getAvailablePermits());
+
+        //许可派发到等待者的executor期间等待者被毁约,许可归还而不是丢失
+        final List<Runnable> deferred = new ArrayList<>();
+        Executor manual = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                deferred.add(command);
+            }
+        };
+        AsyncSemaphore single = new AsyncSemaphore(1);
+        Permit held = single.tryAcquire();
+        Promise<Permit> late = single.acquire(manual);
+        held.release();
+        assertEquals(0, single.getQueueLength());
+        late.broke();
+        for(Runnable runnable: deferred){
+            runnable.run();
+        }
+        assertEquals(1, single.getAvailablePermits());
+
+        //互斥锁保护跨越多个then阶段的临界区
+        final AsyncMutex mutex = new AsyncMutex();
+        final AtomicInteger inside = new AtomicInteger();
+        final AtomicInteger overlapped = new AtomicInteger();
+        List<Promise<Void>> promises = new ArrayList<>();
+        for(int i=0; i<20; i++){
+            promises.add(mutex.lock(PromiseExecutors.io()).thenPromise(new Function<Permit, Promise<Void>>() {
+                @Override
+                public Promise<Void> call(final Permit permit) {
+                    if (inside.incrementAndGet() != 1) overlapped.incrementAndGet();
+                    return Promise.<Void>timer(null, 2, TimeUnit.MILLISECONDS, PromiseExecutors.io()).then(new Function<Void, Void>() {
+                        @Override
+                        public Void call(Void aVoid) {
+                            inside.decrementAndGet();
+                            permit.release();
+                            return null;
+                        }
+                    });
+                }
+            }));
+        }
+        Promise.all(PromiseExecutors.immediate(), promises).await(10, TimeUnit.SECONDS);
+        assertEquals(0, overlapped.get());
+        assertTrue(!mutex.isLocked());
+    }
+
+    @Test
+    public void asyncRateLimiter() throws Exception {
+        //每秒20个令牌,最多积攒2个:前两个立即取得,之后每50毫秒一个
+        AsyncRateLimiter limiter = new AsyncRateLimiter(20, 2);
+        long start = System.nanoTime();
+        List<Promise<Void>> promises = new ArrayList<>();
+        for(int i=0; i<6; i++){
+            promises.add(limiter.take(PromiseExecutors.immediate()));
+        }
+        assertTrue(!limiter.tryTake());
+        Promise.all(PromiseExecutors.immediate(), promises).await(5, TimeUnit.SECONDS);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("elapsed " + elapsed, elapsed >= 180);
+
+        Thread.sleep(150);
+        assertTrue(limiter.tryTake());
+    }
+
+    @Test
+    public void promiseMetrics() throws Exception {
+        PromiseMetrics metrics = new PromiseMetrics();
+        Promise.setListener(metrics);
+        try {
+            final List<PromiseHandler<Integer>> handlers = new ArrayList<>();
+            Promise<Integer> promise = new Promise<>(new Action<PromiseHandler<Integer>>() {
+                @Override
+                public void call(PromiseHandler<Integer> promiseHandler) {
+                    handlers.add(promiseHandler);
+                }
+            }, PromiseExecutors.immediate(), "load");
+            Promise<Integer> then = promise.then(new Function<Integer, Integer>() {
+                @Override
+                public Integer call(Integer integer) {
+                    return integer + 1;
+                }
+            });
+            PromiseMetrics.Stats stats = metrics.getStats("load");
+            assertEquals(1, stats.getCreated());
+            assertEquals(1, stats.getOutstanding());
+
+            Thread.sleep(20);
+            handlers.get(0).resolve(1);
+            assertEquals(2, (long) then.await(5, TimeUnit.SECONDS));
+            assertEquals(1, stats.getResolved());
+            assertEquals(0, stats.getOutstanding());
+            assertTrue(stats.getPendingTime().getMax(TimeUnit.MILLISECONDS) >= 20);
+            assertEquals(1, stats.getEnqueued());
+            assertEquals(1, stats.getRunTime().getCount());
+            assertEquals(1, stats.getQueueTime().getCount());
+            assertEquals(1, metrics.getStats("load-then").getResolved());
+        } finally {
+            Promise.setListener(null);
+        }
+
+        //卸载之后不再记录
+        Promise.resolve(1, PromiseExecutors.immediate(), "load");
+        assertEquals(1, metrics.getStats("load").getCreated());
+
+        //直方图的相对误差不超过25%
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(int i=1; i<=100; i++){
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        long p50 = histogram.getPercentile(0.5, TimeUnit.MILLISECONDS);
+        long p99 = histogram.getPercentile(0.99, TimeUnit.MILLISECONDS);
+        assertTrue("p50 " + p50, p50 >= 50 && p50 <= 63);
+        assertTrue("p99 " + p99, p99 >= 99 && p99 <= 100);
+        assertEquals(100, histogram.getMax(TimeUnit.MILLISECONDS));
+    }
+}
@@ -15,3 +15,6 @@
 #-keepclassmembers class fqcn.of.javascript.interface.for.webview {
 #   public *;
 #}
+
+# 通过ServiceLoader加载的executor提供者
+-keep class * implements com.hesc.promise.PromiseExecutorProvider { public <init>(); }
@@ -0,0 +1,51 @@
+package com.hesc.promise.android;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.hesc.promise.PromiseExecutorProvider;
+import com.hesc.promise.PromiseExecutors;
+
+import java.util.concurrent.Executor;
+
+/**
+ * <p>android平台的executor提供者,通过{@link Handler}把任务投递到线程的消息循环。</p>
+ * <p>已在META-INF/services中声明,依赖本模块即可生效。
+ * 主线程的executor只创建一次,当前线程的executor每个线程创建一次。
+ * 投递的任务经过{@link PromiseExecutors#batching(Executor)}合并,一批续体只占用一条looper消息。</p>
+ */
+public class AndroidExecutorProvider implements PromiseExecutorProvider {
+
+    private final Executor mMainThreadExecutor =
+            PromiseExecutors.batching(new HandlerExecutor(new Handler(Looper.getMainLooper())));
+
+    private final ThreadLocal<Executor> mCurrentThreadExecutor = new ThreadLocal<Executor>() {
+        @Override
+        protected Executor initialValue() {
+            return PromiseExecutors.batching(new HandlerExecutor(new Handler()));
+        }
+    };
+
+    @Override
+    public Executor mainThread(){
+        return mMainThreadExecutor;
+    }
+
+    @Override
+    public Executor currentThread(){
+        return mCurrentThreadExecutor.get();
+    }
+
+    private static final class HandlerExecutor implements Executor {
+        private final Handler mHandler;
+
+        HandlerExecutor(Handler handler) {
+            mHandler = handler;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            mHandler.post(command);
+        }
+    }
+}